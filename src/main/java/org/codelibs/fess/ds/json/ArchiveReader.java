@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Reads record files in zip and tar archives. Records of a member have paths such as "/path/to/archive.zip!/member.jsonl".
+ */
+public class ArchiveReader {
+    private static final Logger logger = LogManager.getLogger(ArchiveReader.class);
+
+    public static final String ARCHIVE_ZIP = "zip";
+
+    public static final String ARCHIVE_TAR = "tar";
+
+    private final JsonFileReader fileReader;
+
+    private final Predicate<String> memberFilter;
+
+    private final int parallelism;
+
+    private final BooleanSupplier alive;
+
+    /**
+     * @param fileReader The reader of members.
+     * @param memberFilter Returns true for the names of members to read.
+     * @param parallelism The number of threads which read members of a zip file.
+     * @param alive Returns false when the crawler is stopped.
+     */
+    public ArchiveReader(final JsonFileReader fileReader, final Predicate<String> memberFilter, final int parallelism,
+            final BooleanSupplier alive) {
+        this.fileReader = fileReader;
+        this.memberFilter = memberFilter;
+        this.parallelism = parallelism;
+        this.alive = alive;
+    }
+
+    /**
+     * Returns the archive type of the file.
+     *
+     * @param filename The file name.
+     * @return zip or tar, or null if the file is not an archive.
+     */
+    public static String getArchiveType(final String filename) {
+        final String name = filename.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip")) {
+            return ARCHIVE_ZIP;
+        }
+        if (name.endsWith(".tgz") || Compression.stripSuffix(name).endsWith(".tar")) {
+            return ARCHIVE_TAR;
+        }
+        return null;
+    }
+
+    /**
+     * Reads records of the members of the archive.
+     *
+     * @param paramMap The params of the current thread.
+     * @param sink The sink of records.
+     * @param file The archive file.
+     * @return The number of records.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long read(final DataStoreParams paramMap, final RecordSink sink, final File file) throws IOException {
+        if (ARCHIVE_ZIP.equals(getArchiveType(file.getName()))) {
+            return readZip(paramMap, sink, file);
+        }
+        return readTar(paramMap, sink, file);
+    }
+
+    /**
+     * Reads members of the zip file. Members are independently readable, so they are processed
+     * in parallel when archiveParallelism is greater than 1.
+     */
+    private long readZip(final DataStoreParams paramMap, final RecordSink sink, final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            final List<ZipEntry> entries = new ArrayList<>();
+            for (final Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements();) {
+                final ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory() && memberFilter.test(entry.getName())) {
+                    entries.add(entry);
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Reading {} members in {}", entries.size(), path);
+            }
+
+            if (parallelism <= 1 || entries.size() <= 1) {
+                long count = 0;
+                for (final ZipEntry entry : entries) {
+                    if (!alive.getAsBoolean()) {
+                        break;
+                    }
+                    count += readZipEntry(paramMap, sink, zipFile, path, entry);
+                }
+                return count;
+            }
+
+            final ExecutorService executorService = ExecutorUtil.newFixedThreadPool(Math.min(parallelism, entries.size()));
+            try {
+                final List<Future<Long>> recordCounts = new ArrayList<>(entries.size());
+                for (final ZipEntry entry : entries) {
+                    if (!alive.getAsBoolean()) {
+                        break;
+                    }
+                    // each member has its own params because CRAWLER_STATS_KEY is updated per record
+                    final DataStoreParams entryParamMap = paramMap.newInstance();
+                    recordCounts.add(executorService.submit(() -> {
+                        try {
+                            return readZipEntry(entryParamMap, sink, zipFile, path, entry);
+                        } finally {
+                            sink.flush(entryParamMap);
+                        }
+                    }));
+                }
+                long count = 0;
+                for (int i = 0; i < recordCounts.size(); i++) {
+                    try {
+                        count += recordCounts.get(i).get();
+                    } catch (final ExecutionException e) {
+                        logger.warn("Failed to process {}!/{}", path, entries.get(i).getName(), e.getCause());
+                        sink.markIncomplete(path);
+                    }
+                }
+                return count;
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            } finally {
+                ExecutorUtil.shutdown(executorService);
+            }
+        }
+    }
+
+    private long readZipEntry(final DataStoreParams paramMap, final RecordSink sink, final ZipFile zipFile, final String path,
+            final ZipEntry entry) throws IOException {
+        return fileReader.readStream(paramMap, sink, path + "!/" + entry.getName(), entry.getName(),
+                new BufferedInputStream(zipFile.getInputStream(entry)));
+    }
+
+    /**
+     * Reads members of the tar file sequentially. A compressed tar file such as .tar.gz or .tgz
+     * is decompressed while reading.
+     */
+    private long readTar(final DataStoreParams paramMap, final RecordSink sink, final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        try (FileInputStream fis = new FileInputStream(file); InputStream raw = new BufferedInputStream(fis)) {
+            try (InputStream in = fileReader.openStream(path, file.getName(), raw);
+                    TarArchiveInputStream tarIn = new TarArchiveInputStream(in)) {
+                long count = 0;
+                for (TarArchiveEntry entry; (entry = tarIn.getNextEntry()) != null;) {
+                    if (!alive.getAsBoolean()) {
+                        break;
+                    }
+                    if (!entry.isFile() || !memberFilter.test(entry.getName())) {
+                        continue;
+                    }
+                    // members are read in place, so closing a member must not close the archive
+                    final InputStream memberIn = new FilterInputStream(tarIn) {
+                        @Override
+                        public void close() {
+                            // do nothing
+                        }
+                    };
+                    count += fileReader.readStream(paramMap, sink, path + "!/" + entry.getName(), entry.getName(),
+                            new BufferedInputStream(memberIn));
+                }
+                return count;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads '\n' terminated lines from a byte stream without decoding them.
+ * The current line is exposed as a slice of a reusable buffer, which is
+ * only valid until the next call of {@link #next()}.
+ */
+public class ByteLineReader {
+
+    private final InputStream in;
+
+    private byte[] buffer;
+
+    /** The start of unread bytes in the buffer. */
+    private int position;
+
+    /** The end of valid bytes in the buffer. */
+    private int limit;
+
+    private int offset;
+
+    private int length;
+
+    /** The stream offset of buffer[0]. */
+    private long base;
+
+    private boolean terminated;
+
+    private boolean eof;
+
+    private boolean first;
+
+    public ByteLineReader(final InputStream in, final int bufferSize) {
+        this(in, bufferSize, true);
+    }
+
+    /**
+     * @param in The input stream.
+     * @param bufferSize The initial buffer size.
+     * @param startOfFile true if the stream starts at the beginning of a file, which may have a BOM.
+     */
+    public ByteLineReader(final InputStream in, final int bufferSize, final boolean startOfFile) {
+        this.in = in;
+        buffer = new byte[bufferSize];
+        first = startOfFile;
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return false if there are no more lines.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean next() throws IOException {
+        int scan = position;
+        while (true) {
+            for (int i = scan; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    terminated = true;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (position < limit) {
+                    setLine(position, limit);
+                    position = limit;
+                    terminated = false;
+                    return true;
+                }
+                return false;
+            }
+            scan = limit - position;
+            fill();
+        }
+    }
+
+    private void setLine(final int start, final int end) {
+        int s = start;
+        if (first) {
+            first = false;
+            // skip UTF-8 BOM
+            if (end - s >= 3 && buffer[s] == (byte) 0xEF && buffer[s + 1] == (byte) 0xBB && buffer[s + 2] == (byte) 0xBF) {
+                s += 3;
+            }
+        }
+        int e = end;
+        if (e > s && buffer[e - 1] == '\r') {
+            e--;
+        }
+        offset = s;
+        length = e - s;
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            base += position;
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        final int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return The number of bytes read from the stream up to the end of the current line, including its terminator.
+     */
+    public long getLineEnd() {
+        return base + position;
+    }
+
+    /**
+     * @return true if the current line ends with '\n', false if it is the unterminated last line of the stream.
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Persists how far each file has been read, so that an append-only file can be
+ * read from the saved offset in the next crawl.
+ * The store is a JSON file which is replaced atomically on save.
+ */
+public class CheckpointStore {
+    private static final Logger logger = LogManager.getLogger(CheckpointStore.class);
+
+    /** The number of bytes before the offset which are compared to detect a rewritten file. */
+    protected static final int CHECKSUM_LENGTH = 4096;
+
+    private final Path path;
+
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+
+    /** Checkpoints read from the store file. */
+    private final Map<String, Checkpoint> loadedCheckpoints = new ConcurrentHashMap<>();
+
+    public CheckpointStore(final Path path, final ObjectMapper objectMapper) {
+        this.path = path;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Reads checkpoints from the store file if it exists.
+     *
+     * @throws IOException if the store file cannot be read.
+     */
+    public void load() throws IOException {
+        if (Files.exists(path)) {
+            final Map<String, Checkpoint> map = objectMapper.readValue(path.toFile(), new TypeReference<Map<String, Checkpoint>>() {
+            });
+            checkpoints.putAll(map);
+            loadedCheckpoints.putAll(map);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded {} checkpoints from {}", checkpoints.size(), path);
+            }
+        }
+    }
+
+    public Checkpoint get(final String filePath) {
+        return checkpoints.get(filePath);
+    }
+
+    public void put(final String filePath, final Checkpoint checkpoint) {
+        checkpoints.put(filePath, checkpoint);
+    }
+
+    /**
+     * Restores the checkpoints of the files to those read from the store file, or removes them if there were none,
+     * so that the files are read again from there.
+     *
+     * @param filter The filter of file paths.
+     */
+    public void revert(final Predicate<String> filter) {
+        for (final String filePath : checkpoints.keySet()) {
+            if (filter.test(filePath)) {
+                final Checkpoint checkpoint = loadedCheckpoints.get(filePath);
+                if (checkpoint != null) {
+                    checkpoints.put(filePath, checkpoint);
+                } else {
+                    checkpoints.remove(filePath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the checkpoint of the file if the file has only been appended to since the checkpoint.
+     *
+     * @param file The file.
+     * @param channel The channel of the file.
+     * @return The checkpoint, or null if the file has no checkpoint or has been replaced or truncated.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Checkpoint getResumePoint(final File file, final FileChannel channel) throws IOException {
+        final Checkpoint checkpoint = get(file.getAbsolutePath());
+        if (checkpoint == null) {
+            return null;
+        }
+        if (!Objects.equals(checkpoint.getFileKey(), getFileKey(file)) || channel.size() < checkpoint.getOffset()
+                || checksum(channel, checkpoint.getOffset()) != checkpoint.getChecksum()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} has changed since {}", file.getAbsolutePath(), checkpoint);
+            }
+            return null;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Creates a checkpoint of the file at the offset.
+     *
+     * @param file The file.
+     * @param channel The channel of the file.
+     * @param offset The offset up to which the file has been read.
+     * @param lines The number of lines up to the offset.
+     * @return The checkpoint.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Checkpoint createCheckpoint(final File file, final FileChannel channel, final long offset, final long lines)
+            throws IOException {
+        final Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setFileKey(getFileKey(file));
+        checkpoint.setSize(channel.size());
+        checkpoint.setLastModified(file.lastModified());
+        checkpoint.setOffset(offset);
+        checkpoint.setLines(lines);
+        checkpoint.setChecksum(checksum(channel, offset));
+        return checkpoint;
+    }
+
+    /**
+     * Writes all checkpoints to the store file.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void save() throws IOException {
+        final Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        objectMapper.writeValue(tempFile.toFile(), new TreeMap<>(checkpoints));
+        try {
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Saved {} checkpoints to {}", checkpoints.size(), path);
+        }
+    }
+
+    /**
+     * Returns the identity of the file, such as a device and inode number, if the file system has one.
+     *
+     * @param file The file.
+     * @return The file key, or null if it is not available.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected static String getFileKey(final File file) throws IOException {
+        final Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        return fileKey != null ? fileKey.toString() : null;
+    }
+
+    /**
+     * Calculates CRC32 of the bytes just before the offset.
+     *
+     * @param channel The file channel.
+     * @param offset The end of the bytes.
+     * @return The checksum.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected static long checksum(final FileChannel channel, final long offset) throws IOException {
+        final long start = Math.max(offset - CHECKSUM_LENGTH, 0);
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (offset - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        final CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return crc.getValue();
+    }
+
+    /**
+     * The read position of a file.
+     */
+    public static class Checkpoint {
+        private String fileKey;
+
+        private long size;
+
+        private long lastModified;
+
+        private long offset;
+
+        private long lines;
+
+        private long checksum;
+
+        /** The number of rotations and truncations of a followed file. */
+        private long generation;
+
+        public String getFileKey() {
+            return fileKey;
+        }
+
+        public void setFileKey(final String fileKey) {
+            this.fileKey = fileKey;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(final long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(final long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public void setOffset(final long offset) {
+            this.offset = offset;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public void setLines(final long lines) {
+            this.lines = lines;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(final long checksum) {
+            this.checksum = checksum;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public void setGeneration(final long generation) {
+            this.generation = generation;
+        }
+
+        @Override
+        public String toString() {
+            return "Checkpoint [fileKey=" + fileKey + ", size=" + size + ", lastModified=" + lastModified + ", offset=" + offset
+                    + ", lines=" + lines + ", checksum=" + checksum + ", generation=" + generation + "]";
+        }
+    }
+}
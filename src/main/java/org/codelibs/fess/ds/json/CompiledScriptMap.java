@@ -0,0 +1,274 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.exception.DataStoreException;
+import org.codelibs.fess.script.ScriptEngine;
+
+import com.fasterxml.jackson.core.JsonPointer;
+
+/**
+ * Field scripts of a data config, compiled once per crawl.
+ * <p>
+ * Each entry is compiled into the cheapest form with the same result as
+ * {@code AbstractDataStore#convertValue}: an empty template is a constant,
+ * a Groovy property path over maps, such as {@code data.title}, is resolved
+ * by map lookups, and any other template is evaluated by the script engine,
+ * which is looked up only once.
+ * </p>
+ * <p>
+ * When JSON Pointer mapping is enabled, a template starting with '/', such
+ * as {@code /meta/title}, is a JSON Pointer into the record and is resolved
+ * without the script engine.
+ * </p>
+ */
+public class CompiledScriptMap {
+
+    private static final String GROOVY = "groovy";
+
+    private static final Pattern PROPERTY_PATH = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*(\\.[A-Za-z_$][A-Za-z0-9_$]*)*");
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
+    /** Names which let a script read variables by a computed name. */
+    private static final Set<String> DYNAMIC_NAMES =
+            Set.of("binding", "this", "getBinding", "getProperty", "getVariable", "getVariables", "variables", "properties", "evaluate");
+
+    private final String[] fieldNames;
+
+    private final FieldScript[] fieldScripts;
+
+    private final Set<String> referencedNames;
+
+    private final Supplier<ScriptEngine> engineSupplier;
+
+    private final boolean jsonPointer;
+
+    private volatile ScriptEngine scriptEngine;
+
+    /**
+     * @param scriptMap The field name to template map.
+     * @param scriptType The script type.
+     * @param engineSupplier Provides the script engine for the script type.
+     */
+    public CompiledScriptMap(final Map<String, String> scriptMap, final String scriptType, final Supplier<ScriptEngine> engineSupplier) {
+        this(scriptMap, scriptType, engineSupplier, false);
+    }
+
+    /**
+     * @param scriptMap The field name to template map.
+     * @param scriptType The script type.
+     * @param engineSupplier Provides the script engine for the script type.
+     * @param jsonPointer true if templates starting with '/' are JSON Pointers.
+     */
+    public CompiledScriptMap(final Map<String, String> scriptMap, final String scriptType, final Supplier<ScriptEngine> engineSupplier,
+            final boolean jsonPointer) {
+        this.engineSupplier = engineSupplier;
+        this.jsonPointer = jsonPointer;
+        fieldNames = new String[scriptMap.size()];
+        fieldScripts = new FieldScript[scriptMap.size()];
+        int i = 0;
+        for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
+            fieldNames[i] = entry.getKey();
+            fieldScripts[i] = compile(entry.getValue(), scriptType);
+            i++;
+        }
+        referencedNames = analyzeNames(scriptMap.values());
+    }
+
+    /**
+     * Collects names which templates may read from the record: each template
+     * itself, as it may be a key, and every identifier in it. This is a
+     * superset of the referenced top-level keys.
+     *
+     * @return The names, or null if a template may read variables by a computed name.
+     */
+    protected Set<String> analyzeNames(final Collection<String> templates) {
+        final Set<String> names = new HashSet<>();
+        for (final String template : templates) {
+            if (StringUtil.isEmpty(template)) {
+                continue;
+            }
+            if (isJsonPointer(template)) {
+                final JsonPointer pointer = JsonPointer.compile(template);
+                names.add(pointer.getMatchingProperty());
+                continue;
+            }
+            names.add(template);
+            final Matcher matcher = IDENTIFIER.matcher(template);
+            while (matcher.find()) {
+                final String name = matcher.group();
+                if (DYNAMIC_NAMES.contains(name)) {
+                    return null;
+                }
+                names.add(name);
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Returns names of record fields which the templates may reference.
+     *
+     * @return The names, or null if they cannot be determined.
+     */
+    public Set<String> getReferencedNames() {
+        return referencedNames;
+    }
+
+    protected FieldScript compile(final String template, final String scriptType) {
+        if (StringUtil.isEmpty(template)) {
+            return map -> StringUtil.EMPTY;
+        }
+        if (isJsonPointer(template)) {
+            try {
+                return new JsonPointerScript(JsonPointer.compile(template));
+            } catch (final IllegalArgumentException e) {
+                throw new DataStoreException("Invalid JSON Pointer: " + template, e);
+            }
+        }
+        if (GROOVY.equals(scriptType) && PROPERTY_PATH.matcher(template).matches()) {
+            return new PropertyPathScript(template);
+        }
+        return map -> {
+            if (map.containsKey(template)) {
+                return map.get(template);
+            }
+            return getScriptEngine().evaluate(template, map);
+        };
+    }
+
+    private boolean isJsonPointer(final String template) {
+        return jsonPointer && template.startsWith("/");
+    }
+
+    private ScriptEngine getScriptEngine() {
+        ScriptEngine engine = scriptEngine;
+        if (engine == null) {
+            engine = engineSupplier.get();
+            scriptEngine = engine;
+        }
+        return engine;
+    }
+
+    /**
+     * Evaluates all fields and puts non-null values into the data map.
+     *
+     * @param resultMap The record and params to evaluate against.
+     * @param dataMap The document to put values into.
+     */
+    public void evaluate(final Map<String, Object> resultMap, final Map<String, Object> dataMap) {
+        for (int i = 0; i < fieldScripts.length; i++) {
+            final Object value = fieldScripts[i].evaluate(resultMap);
+            if (value != null) {
+                dataMap.put(fieldNames[i], value);
+            }
+        }
+    }
+
+    /**
+     * A compiled template.
+     */
+    @FunctionalInterface
+    protected interface FieldScript {
+        Object evaluate(Map<String, Object> map);
+    }
+
+    /**
+     * Resolves a JSON Pointer against maps and lists. Missing values resolve to null.
+     */
+    protected static class JsonPointerScript implements FieldScript {
+        private final String[] names;
+
+        private final int[] indexes;
+
+        protected JsonPointerScript(final JsonPointer pointer) {
+            final List<String> nameList = new ArrayList<>();
+            final List<Integer> indexList = new ArrayList<>();
+            for (JsonPointer ptr = pointer; !ptr.matches(); ptr = ptr.tail()) {
+                nameList.add(ptr.getMatchingProperty());
+                indexList.add(ptr.getMatchingIndex());
+            }
+            names = nameList.toArray(new String[nameList.size()]);
+            indexes = indexList.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        @Override
+        public Object evaluate(final Map<String, Object> map) {
+            Object value = map;
+            for (int i = 0; i < names.length; i++) {
+                if (value instanceof final Map<?, ?> child) {
+                    value = child.get(names[i]);
+                } else if (value instanceof final List<?> list && indexes[i] >= 0 && indexes[i] < list.size()) {
+                    value = list.get(indexes[i]);
+                } else {
+                    return null;
+                }
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Resolves {@code a.b.c} by map lookups. The template is passed to the
+     * script engine when the root is not a key of the map (e.g. a class name)
+     * or a non-map value is found in the middle of the path.
+     */
+    protected class PropertyPathScript implements FieldScript {
+        private final String template;
+
+        private final String[] names;
+
+        protected PropertyPathScript(final String template) {
+            this.template = template;
+            names = template.split("\\.");
+        }
+
+        @Override
+        public Object evaluate(final Map<String, Object> map) {
+            if (map.containsKey(template)) {
+                return map.get(template);
+            }
+            if (!map.containsKey(names[0])) {
+                return getScriptEngine().evaluate(template, map);
+            }
+            Object value = map.get(names[0]);
+            for (int i = 1; i < names.length; i++) {
+                if (value == null) {
+                    // NullPointerException in Groovy
+                    return null;
+                }
+                if (!(value instanceof final Map<?, ?> child)) {
+                    return getScriptEngine().evaluate(template, map);
+                }
+                value = child.get(names[i]);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+/**
+ * Compression formats of input files, which are detected by a file suffix or magic bytes.
+ * gzip is decompressed by the JDK, and bzip2 by commons-compress, which is provided by Fess.
+ */
+public enum Compression {
+    GZIP(".gz", null, new byte[] { 0x1f, (byte) 0x8b }),
+
+    BZIP2(".bz2", CompressorStreamFactory.BZIP2, new byte[] { 'B', 'Z', 'h' });
+
+    private static final int MAGIC_LENGTH = 3;
+
+    private final String suffix;
+
+    private final String compressorName;
+
+    private final byte[] magic;
+
+    Compression(final String suffix, final String compressorName, final byte[] magic) {
+        this.suffix = suffix;
+        this.compressorName = compressorName;
+        this.magic = magic;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Wraps the stream with a decompressor.
+     *
+     * @param in The compressed stream.
+     * @param bufferSize The buffer size of the decompressor.
+     * @return The decompressed stream.
+     * @throws IOException if the stream cannot be decompressed.
+     */
+    public InputStream decompress(final InputStream in, final int bufferSize) throws IOException {
+        if (compressorName == null) {
+            return new GZIPInputStream(in, bufferSize);
+        }
+        try {
+            return new CompressorStreamFactory().createCompressorInputStream(compressorName, in, true);
+        } catch (final CompressorException | LinkageError e) {
+            throw new IOException("Failed to create " + compressorName + " decompressor.", e);
+        }
+    }
+
+    /**
+     * Finds the compression from the file suffix.
+     *
+     * @param filename The file name.
+     * @return The compression, or null if the suffix is not a compression one.
+     */
+    public static Compression fromFilename(final String filename) {
+        final String name = filename.toLowerCase(Locale.ROOT);
+        for (final Compression compression : values()) {
+            if (name.endsWith(compression.suffix)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the compression suffix from the file name.
+     *
+     * @param filename The file name.
+     * @return The file name without the compression suffix.
+     */
+    public static String stripSuffix(final String filename) {
+        final Compression compression = fromFilename(filename);
+        if (compression == null) {
+            return filename;
+        }
+        return filename.substring(0, filename.length() - compression.suffix.length());
+    }
+
+    /**
+     * Finds the compression from the magic bytes at the head of the stream.
+     * The stream is reset to its original position after the check.
+     *
+     * @param in The input stream which supports mark/reset.
+     * @return The compression, or null if the stream is not compressed.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static Compression detect(final InputStream in) throws IOException {
+        final byte[] head = new byte[MAGIC_LENGTH];
+        in.mark(MAGIC_LENGTH);
+        int length = 0;
+        try {
+            while (length < head.length) {
+                final int n = in.read(head, length, head.length - length);
+                if (n == -1) {
+                    break;
+                }
+                length += n;
+            }
+        } finally {
+            in.reset();
+        }
+        for (final Compression compression : values()) {
+            if (startsWith(head, length, compression.magic)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(final byte[] head, final int length, final byte[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (head[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
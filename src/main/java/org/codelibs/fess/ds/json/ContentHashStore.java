@@ -0,0 +1,277 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persists a 64-bit content hash per record key, so that records which are identical
+ * to the previous crawl can be skipped. Entries are held in primitive hash tables
+ * and saved as a binary file of (key hash, content hash, source hash) triples.
+ * Only records which were found in this crawl are saved, along with records of
+ * sources which were not fully read, so hashes of removed records do not pile up.
+ */
+public class ContentHashStore {
+    private static final Logger logger = LogManager.getLogger(ContentHashStore.class);
+
+    private static final int MAGIC = 0x4a534848;
+
+    private static final int VERSION = 2;
+
+    private static final int SEGMENT_BITS = 6;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path path;
+
+    private final long configHash;
+
+    /** Hashes of the previous crawl, which are only read after loading. */
+    private LongHashMap previous = new LongHashMap();
+
+    /** Source hashes of records of the previous crawl. */
+    private LongHashMap previousSources = new LongHashMap();
+
+    /** Hashes of records stored or found unchanged in this crawl. */
+    private final LongHashMap[] current = new LongHashMap[1 << SEGMENT_BITS];
+
+    /** Source hashes of records in {@link #current}, guarded by the segment of the same index. */
+    private final LongHashMap[] currentSources = new LongHashMap[1 << SEGMENT_BITS];
+
+    /** Sources which were not fully read, so hashes of their records are kept. */
+    private final LongHashMap incompleteSources = new LongHashMap();
+
+    private final AtomicLong unchangedCount = new AtomicLong();
+
+    /**
+     * @param path The store file.
+     * @param configHash The hash of settings which affect indexed documents. Saved hashes are discarded if it differs.
+     */
+    public ContentHashStore(final Path path, final long configHash) {
+        this.path = path;
+        this.configHash = configHash;
+        for (int i = 0; i < current.length; i++) {
+            current[i] = new LongHashMap();
+            currentSources[i] = new LongHashMap();
+        }
+    }
+
+    /**
+     * Reads hashes from the store file if it exists.
+     *
+     * @throws IOException if the store file cannot be read.
+     */
+    public void load() throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(path + " is not a content hash file.");
+            }
+            if (in.readLong() != configHash) {
+                logger.info("Settings have changed since {} was saved, so all records are stored.", path);
+                return;
+            }
+            final long count = in.readLong();
+            final LongHashMap map = new LongHashMap();
+            final LongHashMap sources = new LongHashMap();
+            for (long i = 0; i < count; i++) {
+                final long keyHash = in.readLong();
+                map.put(keyHash, in.readLong());
+                sources.put(keyHash, in.readLong());
+            }
+            previous = map;
+            previousSources = sources;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded {} hashes from {}", previous.size(), path);
+        }
+    }
+
+    /**
+     * Checks if the record has the same content hash as the previous crawl.
+     * An unchanged record is kept in the store with its current source, as it may have moved to another file.
+     *
+     * @param source The source file.
+     * @param keyHash The hash of the record key.
+     * @param contentHash The hash of the record.
+     * @return true if the record is unchanged.
+     */
+    public boolean isUnchanged(final String source, final long keyHash, final long contentHash) {
+        if (previous.containsKey(keyHash) && previous.get(keyHash) == contentHash) {
+            unchangedCount.incrementAndGet();
+            put(keyHash, contentHash, hash(source));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the content hash of a stored record.
+     *
+     * @param source The source file.
+     * @param keyHash The hash of the record key.
+     * @param contentHash The hash of the record.
+     */
+    public void put(final String source, final long keyHash, final long contentHash) {
+        put(keyHash, contentHash, hash(source));
+    }
+
+    private void put(final long keyHash, final long contentHash, final long sourceHash) {
+        final int index = (int) (keyHash >>> (64 - SEGMENT_BITS));
+        final LongHashMap segment = current[index];
+        synchronized (segment) {
+            segment.put(keyHash, contentHash);
+            currentSources[index].put(keyHash, sourceHash);
+        }
+    }
+
+    /**
+     * Marks the source as not fully read, so that hashes of its records in the previous crawl are kept.
+     *
+     * @param source The source file.
+     */
+    public void markIncomplete(final String source) {
+        synchronized (incompleteSources) {
+            incompleteSources.put(hash(source), 0L);
+        }
+    }
+
+    public long getUnchangedCount() {
+        return unchangedCount.get();
+    }
+
+    /**
+     * Writes the hashes of this crawl to the store file. Hashes of the previous crawl which were not found
+     * in this crawl are kept only if their sources were not fully read, so records removed from their sources
+     * are dropped.
+     *
+     * @param completed false to keep all hashes of the previous crawl, for example when the crawl was stopped.
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void save(final boolean completed) throws IOException {
+        final LongHashMap merged = new LongHashMap();
+        final LongHashMap mergedSources = new LongHashMap();
+        for (int i = 0; i < current.length; i++) {
+            synchronized (current[i]) {
+                current[i].forEach(merged::put);
+                currentSources[i].forEach(mergedSources::put);
+            }
+        }
+        synchronized (incompleteSources) {
+            previous.forEach((keyHash, contentHash) -> {
+                final long sourceHash = previousSources.get(keyHash);
+                if (!merged.containsKey(keyHash) && (!completed || incompleteSources.containsKey(sourceHash))) {
+                    merged.put(keyHash, contentHash);
+                    mergedSources.put(keyHash, sourceHash);
+                }
+            });
+        }
+        final Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        final Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(configHash);
+            out.writeLong(merged.size());
+            merged.forEach((key, value) -> {
+                out.writeLong(key);
+                out.writeLong(value);
+                out.writeLong(mergedSources.get(key));
+            });
+        }
+        try {
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Saved {} hashes to {}", merged.size(), path);
+        }
+    }
+
+    /**
+     * Calculates a 64-bit hash of a parsed JSON value. Map entries are hashed in key order,
+     * so the hash does not depend on the field order of the source.
+     *
+     * @param value The value.
+     * @return The hash.
+     */
+    public static long hash(final Object value) {
+        return LongHashMap.mix(hash(FNV_OFFSET_BASIS, value));
+    }
+
+    private static long hash(long h, final Object value) {
+        if (value == null) {
+            return update(h, 'z');
+        }
+        if (value instanceof final CharSequence text) {
+            h = update(update(h, 's'), text.length());
+            for (int i = 0; i < text.length(); i++) {
+                h = update(h, text.charAt(i));
+            }
+            return h;
+        }
+        if (value instanceof final Map<?, ?> map) {
+            final Object[] keys = map.keySet().toArray();
+            Arrays.sort(keys, (k1, k2) -> String.valueOf(k1).compareTo(String.valueOf(k2)));
+            h = update(update(h, 'm'), keys.length);
+            for (final Object key : keys) {
+                h = hash(hash(h, String.valueOf(key)), map.get(key));
+            }
+            return h;
+        }
+        if (value instanceof final Collection<?> collection) {
+            h = update(update(h, 'l'), collection.size());
+            for (final Object item : collection) {
+                h = hash(h, item);
+            }
+            return h;
+        }
+        if (value instanceof final Object[] array) {
+            return hash(h, Arrays.asList(array));
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return hash(update(h, 'n'), value.toString());
+        }
+        return hash(update(h, 'o'), value.toString());
+    }
+
+    private static long update(final long h, final int value) {
+        return (h ^ value) * FNV_PRIME;
+    }
+}
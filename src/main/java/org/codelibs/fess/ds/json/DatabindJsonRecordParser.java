@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * JsonRecordParser backed by Jackson databind with a single pre-built ObjectReader.
+ */
+public class DatabindJsonRecordParser implements JsonRecordParser {
+
+    public static final String NAME = "databind";
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final ObjectReader objectReader;
+
+    private final ObjectReader valueReader;
+
+    public DatabindJsonRecordParser(final ObjectMapper objectMapper) {
+        objectReader = objectMapper.readerFor(MAP_TYPE);
+        valueReader = objectMapper.readerFor(Object.class);
+    }
+
+    @Override
+    public JsonFactory getFactory() {
+        return objectReader.getFactory();
+    }
+
+    @Override
+    public Map<String, Object> parse(final JsonParser parser) throws IOException {
+        return objectReader.readValue(parser);
+    }
+
+    @Override
+    public Object parseValue(final JsonParser parser) throws IOException {
+        return valueReader.readValue(parser);
+    }
+
+    @Override
+    public Map<String, Object> parse(final String value) throws IOException {
+        return objectReader.readValue(value);
+    }
+
+    @Override
+    public Map<String, Object> parse(final byte[] data, final int offset, final int length) throws IOException {
+        return objectReader.readValue(data, offset, length);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * Lists files under a directory with {@link Files#walkFileTree}, which streams directory entries
+ * instead of building an array per directory.
+ * Glob patterns are matched against both the path relative to the root and the file name,
+ * and exclude patterns also prune directories.
+ */
+public class DirectoryScanner {
+    private static final Logger logger = LogManager.getLogger(DirectoryScanner.class);
+
+    private final int maxDepth;
+
+    private final List<PathMatcher> includeMatchers;
+
+    private final List<PathMatcher> excludeMatchers;
+
+    private final boolean followSymlinks;
+
+    private final Predicate<String> nameFilter;
+
+    private final ShardSelector shardSelector;
+
+    /**
+     * @param maxDepth The depth of directories to traverse. 1 lists only the children of the root, and 0 or less is unlimited.
+     * @param includes Glob patterns of files to list, or empty to list all files.
+     * @param excludes Glob patterns of files and directories to skip.
+     * @param followSymlinks true to traverse symbolic links to directories.
+     * @param nameFilter The filter of file names, such as a suffix check.
+     */
+    public DirectoryScanner(final int maxDepth, final List<String> includes, final List<String> excludes, final boolean followSymlinks,
+            final Predicate<String> nameFilter) {
+        this(maxDepth, includes, excludes, followSymlinks, nameFilter, null);
+    }
+
+    /**
+     * @param maxDepth The depth of directories to traverse. 1 lists only the children of the root, and 0 or less is unlimited.
+     * @param includes Glob patterns of files to list, or empty to list all files.
+     * @param excludes Glob patterns of files and directories to skip.
+     * @param followSymlinks true to traverse symbolic links to directories.
+     * @param nameFilter The filter of file names, such as a suffix check.
+     * @param shardSelector The selector of files read by this crawler, or null to list all files.
+     */
+    public DirectoryScanner(final int maxDepth, final List<String> includes, final List<String> excludes, final boolean followSymlinks,
+            final Predicate<String> nameFilter, final ShardSelector shardSelector) {
+        this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+        includeMatchers = includes.stream().map(DirectoryScanner::newMatcher).toList();
+        excludeMatchers = excludes.stream().map(DirectoryScanner::newMatcher).toList();
+        this.followSymlinks = followSymlinks;
+        this.nameFilter = nameFilter;
+        this.shardSelector = shardSelector;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    private static PathMatcher newMatcher(final String pattern) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    }
+
+    /**
+     * Lists files under the root, ordered by their last modified time.
+     * If an executor is given, subdirectories of the root are traversed concurrently.
+     *
+     * @param root The root directory.
+     * @param executorService The executor for subdirectories, or null to traverse on the current thread.
+     * @return The files.
+     * @throws IOException if the root cannot be traversed.
+     */
+    public List<File> scan(final Path root, final ExecutorService executorService) throws IOException {
+        return scan(root, root, executorService);
+    }
+
+    /**
+     * Lists files under a directory in the root, ordered by their last modified time.
+     * Paths are matched relative to the root, and the depth is counted from the root.
+     *
+     * @param root The root directory.
+     * @param start The directory to list, which is the root or one of its descendants.
+     * @param executorService The executor for subdirectories, or null to traverse on the current thread.
+     * @return The files.
+     * @throws IOException if the directory cannot be traversed.
+     */
+    public List<File> scan(final Path root, final Path start, final ExecutorService executorService) throws IOException {
+        final int depth = start.equals(root) ? maxDepth : maxDepth - root.relativize(start).getNameCount();
+        if (depth <= 0) {
+            return List.of();
+        }
+        final List<FileEntry> entries = new ArrayList<>();
+        if (executorService == null || depth <= 1) {
+            walk(root, start, depth, entries, null);
+        } else {
+            final List<Path> subdirs = new ArrayList<>();
+            walk(root, start, 1, entries, subdirs);
+            final List<Future<List<FileEntry>>> futures = new ArrayList<>(subdirs.size());
+            for (final Path subdir : subdirs) {
+                futures.add(executorService.submit(() -> {
+                    final List<FileEntry> list = new ArrayList<>();
+                    walk(root, subdir, depth - 1, list, null);
+                    return list;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    entries.addAll(futures.get(i).get());
+                } catch (final ExecutionException e) {
+                    logger.warn("Failed to list files in {}", subdirs.get(i), e.getCause());
+                } catch (final InterruptedException e) {
+                    throw new InterruptedRuntimeException(e);
+                }
+            }
+        }
+        Collections.sort(entries, Comparator.comparingLong((final FileEntry e) -> e.lastModified).thenComparing(e -> e.path));
+        return entries.stream().map(e -> e.path.toFile()).toList();
+    }
+
+    /**
+     * Walks the directory. If subdirs is given, directories at the depth limit are added to it instead of being skipped.
+     */
+    private void walk(final Path root, final Path start, final int depth, final List<FileEntry> entries, final List<Path> subdirs)
+            throws IOException {
+        final Set<FileVisitOption> options =
+                followSymlinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+        Files.walkFileTree(start, options, depth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                if (!dir.equals(start) && isExcluded(root.relativize(dir))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                final Path relativePath = root.relativize(file);
+                if (attrs.isDirectory()) {
+                    // a directory at the depth limit
+                    if (subdirs != null && !isExcluded(relativePath)) {
+                        subdirs.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                BasicFileAttributes fileAttrs = attrs;
+                if (attrs.isSymbolicLink()) {
+                    // links to files are read even if links are not followed
+                    if (!Files.isRegularFile(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    fileAttrs = Files.readAttributes(file, BasicFileAttributes.class);
+                }
+                if (fileAttrs.isRegularFile() && isIncluded(relativePath) && isAssigned(relativePath, file)) {
+                    entries.add(new FileEntry(file, fileAttrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                logger.warn("Failed to access {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Checks if the file is listed.
+     *
+     * @param relativePath The path relative to the root.
+     * @return true if the file name passes the filter and the path matches the patterns.
+     */
+    protected boolean isIncluded(final Path relativePath) {
+        final Path fileName = relativePath.getFileName();
+        if (fileName == null || !nameFilter.test(fileName.toString()) || isExcluded(relativePath)) {
+            return false;
+        }
+        return includeMatchers.isEmpty() || matches(includeMatchers, relativePath);
+    }
+
+    /**
+     * Checks if the file is listed and assigned to this crawler.
+     *
+     * @param root The root directory.
+     * @param file The file under the root.
+     * @return true if the file is included and, when sharding, read by this crawler.
+     */
+    public boolean isSelected(final Path root, final Path file) {
+        final Path relativePath = root.relativize(file);
+        return isIncluded(relativePath) && isAssigned(relativePath, file);
+    }
+
+    private boolean isAssigned(final Path relativePath, final Path file) {
+        return shardSelector == null || shardSelector.select(relativePath, file.toFile());
+    }
+
+    private boolean isExcluded(final Path relativePath) {
+        return !excludeMatchers.isEmpty() && matches(excludeMatchers, relativePath);
+    }
+
+    private static boolean matches(final List<PathMatcher> matchers, final Path relativePath) {
+        final Path fileName = relativePath.getFileName();
+        for (final PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath) || fileName != null && matcher.matches(fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class FileEntry {
+        private final Path path;
+
+        private final long lastModified;
+
+        FileEntry(final Path path, final long lastModified) {
+            this.path = path;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches directories with a {@link WatchService} and reports files which are ready to be read.
+ * A file is ready when it has had no events for the debounce time and its size and last modified
+ * time have not changed since the previous check, because a watch service cannot tell when a writer
+ * closes a file. A file is reported again only if it has changed since it was reported.
+ * This class is used by a single thread.
+ */
+public class DirectoryWatcher implements Closeable {
+    private static final Logger logger = LogManager.getLogger(DirectoryWatcher.class);
+
+    private final List<Path> roots;
+
+    private final DirectoryScanner scanner;
+
+    private final long debounceMillis;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, WatchedDirectory> watchedDirectories = new HashMap<>();
+
+    /** Files which have events but are not ready yet. */
+    private final Map<Path, FileState> pendingFiles = new LinkedHashMap<>();
+
+    /** The states of files when they were reported. */
+    private final Map<Path, FileState> reportedFiles = new HashMap<>();
+
+    /**
+     * @param roots The directories to watch.
+     * @param scanner The scanner which has the depth and the filters of files.
+     * @param debounceMillis The time in milliseconds a file must be quiet before it is reported.
+     * @throws IOException if the watch service cannot be created.
+     */
+    public DirectoryWatcher(final List<Path> roots, final DirectoryScanner scanner, final long debounceMillis) throws IOException {
+        this.roots = roots;
+        this.scanner = scanner;
+        this.debounceMillis = debounceMillis;
+        watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Registers the roots and their subdirectories up to the depth of the scanner.
+     * Files which exist at this point and have not been marked as reported are reported after the debounce time.
+     *
+     * @throws IOException if a root cannot be registered.
+     */
+    public void start() throws IOException {
+        for (final Path root : roots) {
+            register(root, root, 0);
+        }
+        // files may have been created before the directories were registered
+        for (final Path root : roots) {
+            rescan(root);
+        }
+    }
+
+    private void register(final Path root, final Path dir, final int depth) throws IOException {
+        final WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirectories.put(key, new WatchedDirectory(root, dir, depth));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Watching {}", dir);
+        }
+        if (depth + 1 < scanner.getMaxDepth()) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                for (final Path subdir : stream) {
+                    if (!Files.isSymbolicLink(subdir)) {
+                        register(root, subdir, depth + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks files as reported, such as files which have been read before watching.
+     *
+     * @param files The files.
+     */
+    public void markReported(final List<File> files) {
+        for (final File file : files) {
+            final FileState state = FileState.of(file.toPath());
+            if (state != null) {
+                reportedFiles.put(file.toPath(), state);
+            }
+        }
+    }
+
+    /**
+     * Checks the file again after the debounce time, for example because it was reported while being read.
+     *
+     * @param file The file.
+     */
+    public void retry(final File file) {
+        final Path path = file.toPath();
+        reportedFiles.remove(path);
+        pendingFiles.put(path, FileState.of(path));
+    }
+
+    /**
+     * Waits for events, and returns files which are ready.
+     *
+     * @param timeout The maximum time to wait for events in milliseconds.
+     * @return The ready files.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public List<File> poll(final long timeout) throws InterruptedException {
+        WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            handleEvents(key);
+            key = watchService.poll();
+        }
+        return collectReadyFiles(System.currentTimeMillis());
+    }
+
+    private void handleEvents(final WatchKey key) {
+        final WatchedDirectory watched = watchedDirectories.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (watched == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                logger.warn("Events in {} overflowed. Files are checked again.", watched.dir);
+                rescan(watched.root);
+                continue;
+            }
+            final Path path = watched.dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pendingFiles.remove(path);
+                reportedFiles.remove(path);
+            } else if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && watched.depth + 1 < scanner.getMaxDepth()) {
+                    try {
+                        register(watched.root, path, watched.depth + 1);
+                        // files may have been created before the directory was registered
+                        rescan(path, watched.root);
+                    } catch (final IOException e) {
+                        logger.warn("Failed to watch {}", path, e);
+                    }
+                }
+            } else if (scanner.isSelected(watched.root, path)) {
+                pendingFiles.put(path, FileState.of(path));
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private void rescan(final Path root) {
+        rescan(root, root);
+    }
+
+    private void rescan(final Path dir, final Path root) {
+        try {
+            for (final File file : scanner.scan(root, dir, null)) {
+                pendingFiles.put(file.toPath(), FileState.of(file.toPath()));
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to list files in {}", dir, e);
+        }
+    }
+
+    private List<File> collectReadyFiles(final long now) {
+        final List<File> readyFiles = new ArrayList<>();
+        for (final Iterator<Map.Entry<Path, FileState>> it = pendingFiles.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Path, FileState> entry = it.next();
+            final Path path = entry.getKey();
+            final FileState previous = entry.getValue();
+            if (previous != null && now - previous.checkedTime < debounceMillis) {
+                continue;
+            }
+            final FileState current = FileState.of(path);
+            if (current == null) {
+                it.remove();
+            } else if (previous == null || !current.isSameAs(previous)) {
+                // still being written
+                entry.setValue(current);
+            } else {
+                it.remove();
+                if (!current.isSameAs(reportedFiles.get(path))) {
+                    reportedFiles.put(path, current);
+                    readyFiles.add(path.toFile());
+                }
+            }
+        }
+        return readyFiles;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private static class WatchedDirectory {
+        private final Path root;
+
+        private final Path dir;
+
+        private final int depth;
+
+        WatchedDirectory(final Path root, final Path dir, final int depth) {
+            this.root = root;
+            this.dir = dir;
+            this.depth = depth;
+        }
+    }
+
+    private static class FileState {
+        private final long size;
+
+        private final long lastModified;
+
+        private final Object fileKey;
+
+        private final long checkedTime = System.currentTimeMillis();
+
+        FileState(final BasicFileAttributes attrs) {
+            size = attrs.size();
+            lastModified = attrs.lastModifiedTime().toMillis();
+            fileKey = attrs.fileKey();
+        }
+
+        static FileState of(final Path path) {
+            try {
+                return new FileState(Files.readAttributes(path, BasicFileAttributes.class));
+            } catch (final IOException e) {
+                return null;
+            }
+        }
+
+        boolean isSameAs(final FileState other) {
+            return other != null && size == other.size && lastModified == other.lastModified && Objects.equals(fileKey, other.fileKey);
+        }
+    }
+}
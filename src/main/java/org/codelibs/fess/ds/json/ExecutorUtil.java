@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * Thread pools shared by the readers.
+ */
+public final class ExecutorUtil {
+    private static final Logger logger = LogManager.getLogger(ExecutorUtil.class);
+
+    private ExecutorUtil() {
+    }
+
+    /**
+     * Creates a pool whose queue holds as many tasks as threads. When the queue is full,
+     * the submitting thread runs the task itself, so that submitting does not outrun the workers.
+     *
+     * @param nThreads The number of threads.
+     * @return The executor.
+     */
+    public static ExecutorService newFixedThreadPool(final int nThreads) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Executor Thread Pool: {}", nThreads);
+        }
+        return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(nThreads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Waits until all submitted tasks finish.
+     *
+     * @param executorService The executor.
+     */
+    public static void shutdown(final ExecutorService executorService) {
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            executorService.shutdownNow();
+            throw new InterruptedRuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads lines appended to a file, like tail -F.
+ * Only '\n' terminated lines are returned, so a line being written is held back until its newline arrives.
+ * When another file is created at the path, the rest of the old file is read before lines of the new file:
+ * the old file is kept open until it has not grown for one read, because a writer may still append to it
+ * after the rotation. When the file becomes smaller than the read offset, it is read again from the beginning.
+ * Line numbers start again at 1 after a rotation or a truncation, so each of them starts a new generation.
+ * This class is used by a single thread.
+ */
+public class FileFollower implements Closeable {
+    private static final Logger logger = LogManager.getLogger(FileFollower.class);
+
+    private final File file;
+
+    private final int bufferSize;
+
+    /** The file at the path. */
+    private Segment current;
+
+    /** The file which has been rotated away, or null. */
+    private Segment rotated;
+
+    /** The generation of the file at the path. */
+    private long generation;
+
+    /**
+     * Receives lines read by {@link FileFollower#read(LineHandler)}.
+     */
+    public interface LineHandler {
+        /**
+         * @param generation The number of rotations and truncations before the line was written.
+         * @param line The line number in the generation, starting at 1.
+         * @param buffer The buffer which has the line. It is reused after this method returns.
+         * @param offset The start of the line in the buffer.
+         * @param length The length of the line without its terminator.
+         * @return false to stop reading after this line.
+         * @throws IOException if an I/O error occurs.
+         */
+        boolean handle(long generation, long line, byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * @param file The file to follow.
+     * @param bufferSize The initial buffer size.
+     */
+    public FileFollower(final File file, final int bufferSize) {
+        this.file = file;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Opens the file if it exists.
+     *
+     * @return The channel of the file, or null if the file does not exist.
+     * @throws IOException if an I/O error occurs.
+     */
+    public FileChannel open() throws IOException {
+        if (current == null && file.exists()) {
+            current = new Segment(FileChannel.open(file.toPath(), StandardOpenOption.READ), CheckpointStore.getFileKey(file), generation);
+        }
+        return current != null ? current.channel : null;
+    }
+
+    /**
+     * Moves the read position of the opened file, for example to a saved checkpoint.
+     *
+     * @param offset The offset of the next line.
+     * @param lines The number of lines before the offset.
+     */
+    public void seek(final long offset, final long lines) {
+        current.offset = offset;
+        current.lines = lines;
+    }
+
+    /**
+     * Sets the generation of the file at the path, for example to continue the numbering of a previous crawl.
+     *
+     * @param generation The generation.
+     */
+    public void setGeneration(final long generation) {
+        this.generation = generation;
+        if (current != null) {
+            current.generation = generation;
+        }
+    }
+
+    /**
+     * @return The generation of the file at the path.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Reads complete lines which have been appended since the previous call.
+     *
+     * @param handler The handler of lines.
+     * @return The number of lines read.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long read(final LineHandler handler) throws IOException {
+        long count = 0;
+        if (rotated != null) {
+            final long size = rotated.channel.size();
+            count += readLines(rotated, handler, false);
+            if (size == rotated.lastSize) {
+                // the writer has moved to the new file
+                count += readLines(rotated, handler, true);
+                closeRotated();
+            } else {
+                rotated.lastSize = size;
+            }
+        }
+        if (open() == null) {
+            return count;
+        }
+        final String fileKey = file.exists() ? CheckpointStore.getFileKey(file) : null;
+        if (!file.exists() || current.fileKey != null && !Objects.equals(current.fileKey, fileKey)) {
+            logger.info("{} has been rotated at line {}", file.getAbsolutePath(), current.lines);
+            if (rotated != null) {
+                count += readLines(rotated, handler, true);
+                closeRotated();
+            }
+            rotated = current;
+            rotated.lastSize = rotated.channel.size();
+            count += readLines(rotated, handler, false);
+            current = null;
+            generation++;
+            if (open() == null) {
+                return count;
+            }
+        } else if (current.channel.size() < current.offset) {
+            logger.info("{} has been truncated at line {}", file.getAbsolutePath(), current.lines);
+            current.offset = 0;
+            current.lines = 0;
+            setGeneration(generation + 1);
+        }
+        return count + readLines(current, handler, false);
+    }
+
+    private long readLines(final Segment segment, final LineHandler handler, final boolean includeLast) throws IOException {
+        final long start = segment.offset;
+        if (segment.channel.size() <= start) {
+            return 0;
+        }
+        segment.channel.position(start);
+        // the stream is not closed because it closes the channel
+        final ByteLineReader reader = new ByteLineReader(Channels.newInputStream(segment.channel), bufferSize, start == 0);
+        long count = 0;
+        while (reader.next()) {
+            if (!reader.isTerminated() && !includeLast) {
+                break;
+            }
+            segment.lines++;
+            segment.offset = start + reader.getLineEnd();
+            count++;
+            if (!handler.handle(segment.generation, segment.lines, reader.getBuffer(), reader.getOffset(), reader.getLength())) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The channel of the file at the path, or null if it is not open.
+     */
+    public FileChannel getChannel() {
+        return current != null ? current.channel : null;
+    }
+
+    /**
+     * @return The offset of the next line in the file at the path.
+     */
+    public long getOffset() {
+        return current != null ? current.offset : 0;
+    }
+
+    /**
+     * @return The number of lines read from the file at the path.
+     */
+    public long getLines() {
+        return current != null ? current.lines : 0;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void closeRotated() throws IOException {
+        final Segment segment = rotated;
+        rotated = null;
+        segment.channel.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rotated != null) {
+                closeRotated();
+            }
+        } finally {
+            if (current != null) {
+                current.channel.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * An opened file and its read position.
+     */
+    private static class Segment {
+        private final FileChannel channel;
+
+        private final String fileKey;
+
+        private long offset;
+
+        private long lines;
+
+        private long generation;
+
+        /** The size of a rotated file at the previous read. */
+        private long lastSize;
+
+        Segment(final FileChannel channel, final String fileKey, final long generation) {
+            this.channel = channel;
+            this.fileKey = fileKey;
+            this.generation = generation;
+        }
+    }
+}
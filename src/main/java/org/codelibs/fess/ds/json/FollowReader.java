@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.fess.ds.json.CheckpointStore.Checkpoint;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Reads lines appended to UTF-8 JSON Lines files until the crawler is stopped.
+ * The files are polled in turn by the calling thread, which sleeps for the interval when no file has new lines.
+ */
+public class FollowReader {
+    private static final Logger logger = LogManager.getLogger(FollowReader.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final JsonRecordParser recordParser;
+
+    private final RecordStats recordStats;
+
+    private final BooleanSupplier alive;
+
+    private final long interval;
+
+    private CheckpointStore checkpointStore;
+
+    private long checkpointInterval;
+
+    /**
+     * @param recordParser The record parser.
+     * @param recordStats The aggregated stats, or null.
+     * @param alive Returns false when the crawler is stopped.
+     * @param interval The time in milliseconds to sleep when no file has new lines.
+     */
+    public FollowReader(final JsonRecordParser recordParser, final RecordStats recordStats, final BooleanSupplier alive,
+            final long interval) {
+        this.recordParser = recordParser;
+        this.recordStats = recordStats;
+        this.alive = alive;
+        this.interval = interval;
+    }
+
+    /**
+     * Starts following files from their checkpoints, and records how far they have been read.
+     *
+     * @param checkpointStore The store of checkpoints.
+     * @param checkpointInterval The interval in milliseconds to save checkpoints while following, or 0.
+     */
+    public void setCheckpointStore(final CheckpointStore checkpointStore, final long checkpointInterval) {
+        this.checkpointStore = checkpointStore;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Reads the files and lines appended to them until the crawler is stopped.
+     *
+     * @param paramMap The params of the current thread.
+     * @param sink The sink of records.
+     * @param files The files, which must be followable.
+     */
+    public void follow(final DataStoreParams paramMap, final RecordSink sink, final List<File> files) {
+        final List<FileFollower> followers = new ArrayList<>();
+        try {
+            for (final File file : files) {
+                followers.add(openFollower(file));
+            }
+            // a checkpoint can be saved while following only if records before it have been stored
+            final boolean periodic = checkpointStore != null && checkpointInterval > 0 && sink.isSynchronous();
+            long nextCheckpointTime = System.currentTimeMillis() + checkpointInterval;
+            while (alive.getAsBoolean()) {
+                long count = 0;
+                for (final FileFollower follower : followers) {
+                    if (!alive.getAsBoolean()) {
+                        break;
+                    }
+                    count += readFollower(paramMap, sink, follower);
+                }
+                if (count > 0) {
+                    sink.flush(paramMap);
+                    putCheckpoints(sink, followers);
+                }
+                if (periodic && System.currentTimeMillis() >= nextCheckpointTime) {
+                    saveCheckpoints();
+                    nextCheckpointTime = System.currentTimeMillis() + checkpointInterval;
+                }
+                if (count == 0 && alive.getAsBoolean()) {
+                    Thread.sleep(interval);
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } finally {
+            sink.flush(paramMap);
+            putCheckpoints(sink, followers);
+            for (final FileFollower follower : followers) {
+                try {
+                    follower.close();
+                } catch (final IOException e) {
+                    logger.warn("Failed to close {}", follower.getFile().getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+
+    private FileFollower openFollower(final File file) {
+        final FileFollower follower = new FileFollower(file, READ_BUFFER_SIZE);
+        try {
+            final FileChannel channel = follower.open();
+            if (checkpointStore != null) {
+                final Checkpoint checkpoint = channel != null ? checkpointStore.getResumePoint(file, channel) : null;
+                if (checkpoint != null) {
+                    logger.info("Following {} from line {} at offset {}", file.getAbsolutePath(), checkpoint.getLines(),
+                            checkpoint.getOffset());
+                    follower.seek(checkpoint.getOffset(), checkpoint.getLines());
+                    follower.setGeneration(checkpoint.getGeneration());
+                    return follower;
+                }
+                final Checkpoint previous = checkpointStore.get(file.getAbsolutePath());
+                if (previous != null) {
+                    // the file has been rotated or truncated since the previous crawl, so its lines are numbered again
+                    follower.setGeneration(previous.getGeneration() + 1);
+                }
+            }
+            logger.info("Following {}", file.getAbsolutePath());
+        } catch (final IOException e) {
+            // the file is opened again in the next read
+            logger.warn("Failed to open {}", file.getAbsolutePath(), e);
+        }
+        return follower;
+    }
+
+    private long readFollower(final DataStoreParams paramMap, final RecordSink sink, final FileFollower follower) {
+        final String path = follower.getFile().getAbsolutePath();
+        if (recordStats != null) {
+            recordStats.startReading();
+        }
+        try {
+            return follower.read((generation, line, buffer, offset, length) -> {
+                sink.accept(paramMap, path, generation, line, RecordLoader.ofBytes(recordParser, buffer, offset, length));
+                return alive.getAsBoolean();
+            });
+        } catch (final IOException e) {
+            logger.warn("Failed to read {}", path, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Moves checkpoints to the current offsets, except for files which have failed records, so that they are read again
+     * from before the failure.
+     */
+    private void putCheckpoints(final RecordSink sink, final List<FileFollower> followers) {
+        if (checkpointStore == null) {
+            return;
+        }
+        for (final FileFollower follower : followers) {
+            final FileChannel channel = follower.getChannel();
+            if (channel != null && !sink.hasFailure(follower.getFile().getAbsolutePath())) {
+                try {
+                    final Checkpoint checkpoint =
+                            checkpointStore.createCheckpoint(follower.getFile(), channel, follower.getOffset(), follower.getLines());
+                    checkpoint.setGeneration(follower.getGeneration());
+                    checkpointStore.put(follower.getFile().getAbsolutePath(), checkpoint);
+                } catch (final IOException e) {
+                    logger.warn("Failed to create a checkpoint of {}", follower.getFile().getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+
+    private void saveCheckpoints() {
+        try {
+            checkpointStore.save();
+        } catch (final IOException e) {
+            logger.warn("Failed to save checkpoints.", e);
+        }
+    }
+}
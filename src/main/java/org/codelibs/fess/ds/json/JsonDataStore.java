@@ -17,35 +17,45 @@ package org.codelibs.fess.ds.json;
 
 import static org.codelibs.core.stream.StreamUtil.stream;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
 import org.codelibs.core.lang.StringUtil;
 import org.codelibs.fess.Constants;
-import org.codelibs.fess.app.service.FailureUrlService;
 import org.codelibs.fess.ds.AbstractDataStore;
 import org.codelibs.fess.ds.callback.IndexUpdateCallback;
 import org.codelibs.fess.entity.DataStoreParams;
 import org.codelibs.fess.es.config.exentity.DataConfig;
 import org.codelibs.fess.exception.DataStoreException;
-import org.codelibs.fess.helper.CrawlerStatsHelper;
 import org.codelibs.fess.helper.CrawlerStatsHelper.StatsAction;
 import org.codelibs.fess.helper.CrawlerStatsHelper.StatsKeyObject;
+import org.codelibs.fess.mylasta.direction.FessConfig;
 import org.codelibs.fess.util.ComponentUtil;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class JsonDataStore extends AbstractDataStore {
@@ -57,8 +67,155 @@ public class JsonDataStore extends AbstractDataStore {
 
     private static final String DIRS_PARAM = "directories";
 
+    private static final String FORMAT_PARAM = "format";
+
+    private static final String PARSER_PARAM = "parser";
+
+    private static final String IO_MODE_PARAM = "ioMode";
+
+    private static final String FILE_PARALLELISM_PARAM = "fileParallelism";
+
+    private static final String SPLIT_PARALLELISM_PARAM = "splitParallelism";
+
+    private static final String SPLIT_MIN_SIZE_PARAM = "splitMinSize";
+
+    private static final long DEFAULT_SPLIT_MIN_SIZE = 64L * 1024 * 1024;
+
+    private static final String PIPELINE_PARAM = "pipeline";
+
+    private static final String PIPELINE_PROCESS_THREADS_PARAM = "pipelineProcessThreads";
+
+    private static final String PIPELINE_STORE_THREADS_PARAM = "pipelineStoreThreads";
+
+    private static final String PIPELINE_QUEUE_SIZE_PARAM = "pipelineQueueSize";
+
+    private static final String PIPELINE_LOG_INTERVAL_PARAM = "pipelineLogInterval";
+
+    private static final String STORE_MODE_PARAM = "storeMode";
+
+    private static final String STORE_MODE_THREAD = "thread";
+
+    private static final String STORE_MODE_VIRTUAL = "virtual";
+
+    /**
+     * The maximum number of in-flight store calls when storeMode is virtual. The default is 256 on virtual threads.
+     * On a JVM without virtual threads, such as Java 17, a pool of this many platform threads is used,
+     * and the default is the number of processors.
+     */
+    private static final String STORE_CONCURRENCY_PARAM = "storeConcurrency";
+
+    /** The maximum number of records in a batch, which requires {@link #BATCH_COMMIT_PARAM}. */
+    private static final String BATCH_SIZE_PARAM = "batchSize";
+
+    private static final String BATCH_BYTES_PARAM = "batchBytes";
+
+    /**
+     * Commits the callback after each batch, so that a failed commit is reported for the records of the batch.
+     * The callback buffers documents of all threads, so batches must be stored by a single thread.
+     * Without it, a batch would only delay records, which the callback buffers anyway, so batchSize is rejected.
+     */
+    private static final String BATCH_COMMIT_PARAM = "batchCommit";
+
+    private static final long DEFAULT_BATCH_BYTES = 10L * 1024 * 1024;
+
+    private static final String INCLUDE_FIELDS_PARAM = "includeFields";
+
+    private static final String FIELD_PROJECTION_PARAM = "fieldProjection";
+
+    private static final String JSON_POINTER_PARAM = "jsonPointer";
+
+    private static final String COMPRESSION_PARAM = "compression";
+
+    private static final String DECOMPRESS_THREAD_PARAM = "decompressThread";
+
+    private static final String ARCHIVE_PARAM = "archive";
+
+    private static final String ARCHIVE_PARALLELISM_PARAM = "archiveParallelism";
+
+    private static final String CHECKPOINT_FILE_PARAM = "checkpointFile";
+
+    private static final String CHECKPOINT_INTERVAL_PARAM = "checkpointInterval";
+
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 60000L;
+
+    private static final String HASH_STORE_FILE_PARAM = "hashStoreFile";
+
+    private static final String HASH_KEY_FIELD_PARAM = "hashKeyField";
+
+    private static final String STATS_MODE_PARAM = "statsMode";
+
+    private static final String STATS_MODE_RECORD = "record";
+
+    private static final String STATS_MODE_AGGREGATE = "aggregate";
+
+    private static final String STATS_SAMPLE_RATE_PARAM = "statsSampleRate";
+
+    private static final double DEFAULT_STATS_SAMPLE_RATE = 0.01;
+
+    private static final String STATS_SUMMARY_INTERVAL_PARAM = "statsSummaryInterval";
+
+    private static final long DEFAULT_STATS_SUMMARY_INTERVAL = 60000L;
+
+    private static final String URL_TRACK_FILE_PARAM = "urlTrackFile";
+
+    private static final String DELETE_BATCH_SIZE_PARAM = "deleteBatchSize";
+
+    private static final int DEFAULT_DELETE_BATCH_SIZE = 1000;
+
+    private static final String MAX_DEPTH_PARAM = "maxDepth";
+
+    private static final String INCLUDE_PATTERNS_PARAM = "includePatterns";
+
+    private static final String EXCLUDE_PATTERNS_PARAM = "excludePatterns";
+
+    private static final String FOLLOW_SYMLINKS_PARAM = "followSymlinks";
+
+    private static final String LIST_PARALLELISM_PARAM = "listParallelism";
+
+    private static final String WATCH_PARAM = "watch";
+
+    private static final String WATCH_DEBOUNCE_PARAM = "watchDebounce";
+
+    private static final long DEFAULT_WATCH_DEBOUNCE = 2000L;
+
+    private static final String WATCH_QUEUE_SIZE_PARAM = "watchQueueSize";
+
+    private static final int DEFAULT_WATCH_QUEUE_SIZE = 1000;
+
+    private static final long WATCH_POLL_TIMEOUT = 1000L;
+
+    private static final String SHARD_COUNT_PARAM = "shardCount";
+
+    private static final String SHARD_INDEX_PARAM = "shardIndex";
+
+    private static final String SHARD_RANGE_SIZE_PARAM = "shardRangeSize";
+
+    /**
+     * Shares files among crawlers. A unit of work is marked as done when its records have been stored
+     * without failures, so records must be stored before reading returns, without a pipeline or virtual threads.
+     */
+    private static final String LEASE_DIRECTORY_PARAM = "leaseDirectory";
+
+    private static final String LEASE_TIMEOUT_PARAM = "leaseTimeout";
+
+    private static final long DEFAULT_LEASE_TIMEOUT = 300000L;
+
+    private static final String LEASE_RANGE_SIZE_PARAM = "leaseRangeSize";
+
+    private static final String NODE_ID_PARAM = "nodeId";
+
+    private static final String FOLLOW_PARAM = "follow";
+
+    private static final String FOLLOW_INTERVAL_PARAM = "followInterval";
+
+    private static final long DEFAULT_FOLLOW_INTERVAL = 1000L;
+
     private String[] fileSuffixes = { ".json", ".jsonl" };
 
+    protected ObjectMapper objectMapper = new ObjectMapper();
+
+    protected long mmapWindowSize = 256L * 1024 * 1024;
+
     @Override
     protected String getName() {
         return this.getClass().getSimpleName();
@@ -67,45 +224,629 @@ public class JsonDataStore extends AbstractDataStore {
     @Override
     protected void storeData(final DataConfig dataConfig, final IndexUpdateCallback callback, final DataStoreParams paramMap,
             final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap) {
-        final String fileEncoding = getFileEncoding(paramMap);
-        final List<File> fileList = getFileList(paramMap);
+        final ShardSelector shardSelector = createShardSelector(paramMap);
+        final List<File> fileList = getFileList(paramMap, shardSelector);
+        final boolean watch = Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(WATCH_PARAM));
+        final boolean follow = Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(FOLLOW_PARAM));
+        if (watch && follow) {
+            throw new DataStoreException(WATCH_PARAM + " and " + FOLLOW_PARAM + " cannot be used together.");
+        }
+        final boolean leased = StringUtil.isNotBlank(paramMap.getAsString(LEASE_DIRECTORY_PARAM));
+        if (leased && (follow || getIntParam(paramMap, SHARD_COUNT_PARAM, 1) > 1)) {
+            throw new DataStoreException(LEASE_DIRECTORY_PARAM + " cannot be used with " + FOLLOW_PARAM + " or " + SHARD_COUNT_PARAM + ".");
+        }
+        if (leased && (Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(PIPELINE_PARAM))
+                || STORE_MODE_VIRTUAL.equalsIgnoreCase(paramMap.getAsString(STORE_MODE_PARAM, STORE_MODE_THREAD).trim()))) {
+            throw new DataStoreException(LEASE_DIRECTORY_PARAM + " cannot be used with " + PIPELINE_PARAM + " or " + STORE_MODE_PARAM + "="
+                    + STORE_MODE_VIRTUAL + ", because records may not be stored when a lease is released.");
+        }
 
-        if (fileList.isEmpty()) {
+        if (fileList.isEmpty() && !watch) {
             logger.warn("No files to process");
             return;
         }
 
+        final String scriptType = getScriptType(paramMap);
+        final CompiledScriptMap scripts = new CompiledScriptMap(scriptMap, scriptType,
+                () -> ComponentUtil.getScriptEngineFactory().getScriptEngine(scriptType),
+                Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(JSON_POINTER_PARAM)));
+        final RecordStats recordStats = createRecordStats(paramMap);
+        final CrawlContext context = new CrawlContext(new RecordProcessor(dataConfig, callback, scripts, defaultDataMap),
+                createFileReader(paramMap, scripts, recordStats), recordStats);
+        final RecordProcessor processor = context.processor;
+        final int batchSize = getIntParam(paramMap, BATCH_SIZE_PARAM, 1);
+        if (batchSize > 1) {
+            final long batchBytes = getLongParam(paramMap, BATCH_BYTES_PARAM, DEFAULT_BATCH_BYTES);
+            if (!Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(BATCH_COMMIT_PARAM))) {
+                throw new DataStoreException(BATCH_SIZE_PARAM + " requires " + BATCH_COMMIT_PARAM + "=true.");
+            }
+            checkSingleStoreThread(paramMap);
+            logger.info("{}={}, {}={}", BATCH_SIZE_PARAM, batchSize, BATCH_BYTES_PARAM, batchBytes);
+            processor.setBatch(batchSize, batchBytes);
+        }
+        context.checkpointStore = createCheckpointStore(paramMap);
+        if (context.checkpointStore != null) {
+            context.checkpointInterval = getLongParam(paramMap, CHECKPOINT_INTERVAL_PARAM, DEFAULT_CHECKPOINT_INTERVAL);
+            context.fileReader.setCheckpointStore(context.checkpointStore, context.checkpointInterval);
+        }
+        context.contentHashStore = createContentHashStore(paramMap, scriptMap, defaultDataMap);
+        if (context.contentHashStore != null) {
+            processor.setContentHashStore(context.contentHashStore, paramMap.getAsString(HASH_KEY_FIELD_PARAM));
+        }
+        context.shardSelector = shardSelector;
+        if (recordStats != null) {
+            processor.setRecordStats(recordStats, new StatsKeyObject(getName() + "#" + dataConfig.getId()));
+        }
+        if (leased) {
+            context.leaseCoordinator = createLeaseCoordinator(paramMap, scriptMap, defaultDataMap);
+            context.leaseRangeSize = getLongParam(paramMap, LEASE_RANGE_SIZE_PARAM, 0L);
+            context.roots = getRoots(paramMap);
+        }
+        context.recordTracker = createRecordTracker(paramMap);
+        processor.setRecordTracker(context.recordTracker);
+        if (shardSelector != null) {
+            // records of files read by other crawlers must not be deleted by this crawler
+            shardSelector.getSkippedFiles().forEach(processor::markIncomplete);
+        }
+        processor.setStoreDispatcher(createStoreDispatcher(paramMap));
+        boolean completed = false;
+        try {
+            if (Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(PIPELINE_PARAM))) {
+                startPipeline(processor, paramMap);
+            }
+            crawlFiles(context, paramMap, fileList, watch, follow);
+            completed = true;
+        } finally {
+            final boolean synchronous = processor.isSynchronous();
+            processor.close();
+            if (recordStats != null) {
+                logger.info("Record stats: {}", recordStats);
+            }
+            if (context.leaseCoordinator != null) {
+                context.leaseCoordinator.close();
+                // files which are still leased by other crawlers
+                context.busyFiles.forEach(file -> processor.markIncomplete(file.getAbsolutePath()));
+            }
+            // all records have been stored at this point
+            if (context.checkpointStore != null) {
+                if (!synchronous) {
+                    // checkpoints were taken before records were stored
+                    context.checkpointStore.revert(processor::hasFailure);
+                }
+                saveCheckpoints(context);
+            }
+            if (context.contentHashStore != null) {
+                logger.info("Skipped {} unchanged records", context.contentHashStore.getUnchangedCount());
+                try {
+                    context.contentHashStore.save(completed && alive);
+                } catch (final IOException e) {
+                    logger.warn("Failed to save content hashes.", e);
+                }
+            }
+            if (context.recordTracker != null) {
+                // records of files which were not read cannot be told from removed ones if the crawl was stopped
+                finishRecordTracker(dataConfig, context, paramMap, completed && alive);
+            }
+        }
+    }
+
+    /**
+     * Checks that records are stored by a single thread. A commit flushes documents buffered by the callback,
+     * so a commit failure could not be attributed to a batch if other threads stored documents at the same time.
+     */
+    private void checkSingleStoreThread(final DataStoreParams paramMap) {
+        final List<String> concurrentParams = new ArrayList<>();
+        if (STORE_MODE_VIRTUAL.equalsIgnoreCase(paramMap.getAsString(STORE_MODE_PARAM, STORE_MODE_THREAD).trim())) {
+            concurrentParams.add(STORE_MODE_PARAM);
+        }
+        if (Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(PIPELINE_PARAM))) {
+            // readers only submit records to the pipeline
+            if (getIntParam(paramMap, PIPELINE_STORE_THREADS_PARAM, 1) > 1) {
+                concurrentParams.add(PIPELINE_STORE_THREADS_PARAM);
+            }
+        } else {
+            if (getIntParam(paramMap, FILE_PARALLELISM_PARAM, 1) > 1) {
+                concurrentParams.add(FILE_PARALLELISM_PARAM);
+            }
+            if (getIntParam(paramMap, SPLIT_PARALLELISM_PARAM, 1) > 1) {
+                concurrentParams.add(SPLIT_PARALLELISM_PARAM);
+            }
+            if (Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(ARCHIVE_PARAM))
+                    && getIntParam(paramMap, ARCHIVE_PARALLELISM_PARAM, 1) > 1) {
+                concurrentParams.add(ARCHIVE_PARALLELISM_PARAM);
+            }
+        }
+        if (!concurrentParams.isEmpty()) {
+            throw new DataStoreException(
+                    BATCH_COMMIT_PARAM + " requires a single store thread, but records are stored concurrently by " + concurrentParams);
+        }
+    }
+
+    private JsonFileReader createFileReader(final DataStoreParams paramMap, final CompiledScriptMap scripts,
+            final RecordStats recordStats) {
+        final JsonFileReader fileReader =
+                new JsonFileReader(createRecordParser(paramMap, scripts), getFileEncoding(paramMap), recordStats, () -> alive);
+        fileReader.setFormat(getFormat(paramMap));
+        fileReader.setIoMode(getIoMode(paramMap), mmapWindowSize);
+        fileReader.setSplit(getIntParam(paramMap, SPLIT_PARALLELISM_PARAM, 1),
+                getLongParam(paramMap, SPLIT_MIN_SIZE_PARAM, DEFAULT_SPLIT_MIN_SIZE));
+        fileReader.setCompression(getCompression(paramMap), Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(DECOMPRESS_THREAD_PARAM)));
+        if (Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(ARCHIVE_PARAM))) {
+            final int archiveParallelism = getIntParam(paramMap, ARCHIVE_PARALLELISM_PARAM, 1);
+            logger.info("{}={}, {}={}", ARCHIVE_PARAM, true, ARCHIVE_PARALLELISM_PARAM, archiveParallelism);
+            final boolean compressed = fileReader.isDecompressed();
+            fileReader.setArchive(archiveParallelism, name -> isDesiredFile(null, name, compressed, false));
+        }
+        return fileReader;
+    }
+
+    private RecordStats createRecordStats(final DataStoreParams paramMap) {
+        final String statsMode = paramMap.getAsString(STATS_MODE_PARAM, STATS_MODE_RECORD).trim().toLowerCase(Locale.ROOT);
+        switch (statsMode) {
+        case STATS_MODE_RECORD:
+            return null;
+        case STATS_MODE_AGGREGATE:
+            final String value = paramMap.getAsString(STATS_SAMPLE_RATE_PARAM);
+            double sampleRate = DEFAULT_STATS_SAMPLE_RATE;
+            if (StringUtil.isNotBlank(value)) {
+                try {
+                    sampleRate = Double.parseDouble(value.trim());
+                } catch (final NumberFormatException e) {
+                    throw new DataStoreException("Invalid " + STATS_SAMPLE_RATE_PARAM + ": " + value, e);
+                }
+            }
+            final long summaryInterval = getLongParam(paramMap, STATS_SUMMARY_INTERVAL_PARAM, DEFAULT_STATS_SUMMARY_INTERVAL);
+            if (summaryInterval <= 0) {
+                throw new DataStoreException(STATS_SUMMARY_INTERVAL_PARAM + " must be positive: " + summaryInterval);
+            }
+            logger.info("{}={}, {}={}, {}={}", STATS_MODE_PARAM, statsMode, STATS_SAMPLE_RATE_PARAM, sampleRate,
+                    STATS_SUMMARY_INTERVAL_PARAM, summaryInterval);
+            return new RecordStats(sampleRate, summaryInterval, StatsAction.PREPARED.name(), StatsAction.EVALUATED.name(),
+                    StatsAction.FINISHED.name(), StatsAction.EXCEPTION.name(), RecordProcessor.STATS_ACTION_UNCHANGED);
+        default:
+            throw new DataStoreException("Unknown " + STATS_MODE_PARAM + ": " + statsMode);
+        }
+    }
+
+    private ShardSelector createShardSelector(final DataStoreParams paramMap) {
+        final int shardCount = getIntParam(paramMap, SHARD_COUNT_PARAM, 1);
+        if (shardCount <= 1) {
+            return null;
+        }
+        final int shardIndex = getIntParam(paramMap, SHARD_INDEX_PARAM, -1);
+        if (shardIndex < 0 || shardIndex >= shardCount) {
+            throw new DataStoreException(SHARD_INDEX_PARAM + " must be from 0 to " + (shardCount - 1) + ": " + shardIndex);
+        }
+        final long rangeSize = getLongParam(paramMap, SHARD_RANGE_SIZE_PARAM, 0L);
+        logger.info("{}={}, {}={}, {}={}", SHARD_COUNT_PARAM, shardCount, SHARD_INDEX_PARAM, shardIndex, SHARD_RANGE_SIZE_PARAM, rangeSize);
+        return new ShardSelector(shardCount, shardIndex, rangeSize);
+    }
+
+    private LeaseCoordinator createLeaseCoordinator(final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final Map<String, Object> defaultDataMap) {
+        final String leaseDirectory = paramMap.getAsString(LEASE_DIRECTORY_PARAM).trim();
+        final String nodeId = paramMap.getAsString(NODE_ID_PARAM, ManagementFactory.getRuntimeMXBean().getName());
+        final long leaseTimeout = getLongParam(paramMap, LEASE_TIMEOUT_PARAM, DEFAULT_LEASE_TIMEOUT);
+        logger.info("{}={}, {}={}, {}={}, {}={}", LEASE_DIRECTORY_PARAM, leaseDirectory, NODE_ID_PARAM, nodeId, LEASE_TIMEOUT_PARAM,
+                leaseTimeout, LEASE_RANGE_SIZE_PARAM, paramMap.getAsString(LEASE_RANGE_SIZE_PARAM));
+        // units are read again when scripts change
+        final long configHash = ContentHashStore.hash(List.of(scriptMap, defaultDataMap));
+        final LeaseCoordinator leaseCoordinator = new LeaseCoordinator(Paths.get(leaseDirectory), nodeId, leaseTimeout, configHash);
+        try {
+            leaseCoordinator.start();
+        } catch (final IOException e) {
+            leaseCoordinator.close();
+            throw new DataStoreException("Failed to create " + leaseDirectory, e);
+        }
+        return leaseCoordinator;
+    }
+
+    private RecordTracker createRecordTracker(final DataStoreParams paramMap) {
+        final String urlTrackFile = paramMap.getAsString(URL_TRACK_FILE_PARAM);
+        if (StringUtil.isBlank(urlTrackFile)) {
+            return null;
+        }
+        logger.info("{}={}", URL_TRACK_FILE_PARAM, urlTrackFile);
+        final RecordTracker recordTracker = new RecordTracker(Paths.get(urlTrackFile.trim()));
+        try {
+            recordTracker.open();
+        } catch (final IOException e) {
+            logger.warn("Failed to open {}. Removed records are not deleted.", urlTrackFile, e);
+            return null;
+        }
+        return recordTracker;
+    }
+
+    private void finishRecordTracker(final DataConfig dataConfig, final CrawlContext context, final DataStoreParams paramMap,
+            final boolean deleteEnabled) {
+        final int deleteBatchSize = Math.max(getIntParam(paramMap, DELETE_BATCH_SIZE_PARAM, DEFAULT_DELETE_BATCH_SIZE), 1);
+        try {
+            final long deleted =
+                    context.recordTracker.finish(deleteEnabled, urls -> deleteDocuments(dataConfig, urls), deleteBatchSize);
+            logger.info("Deleted {} documents which were removed from source files", deleted);
+        } catch (final IOException e) {
+            logger.warn("Failed to update {}.", paramMap.getAsString(URL_TRACK_FILE_PARAM), e);
+        }
+    }
+
+    /**
+     * Deletes documents of the URLs which were stored by this data config.
+     *
+     * @param dataConfig The data config.
+     * @param urls The URLs of documents.
+     */
+    protected void deleteDocuments(final DataConfig dataConfig, final List<String> urls) {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final QueryBuilder queryBuilder = QueryBuilders.boolQuery()
+                .must(QueryBuilders.termsQuery(fessConfig.getIndexFieldUrl(), urls))
+                .filter(QueryBuilders.termQuery(fessConfig.getIndexFieldConfigId(), dataConfig.getConfigId()));
+        ComponentUtil.getIndexingHelper().deleteDocumentByQuery(ComponentUtil.getSearchEngineClient(), queryBuilder);
+    }
+
+    /**
+     * Creates a store of record hashes. The mapping settings are part of the hash,
+     * so that all records are stored again when the mapping changes.
+     */
+    private ContentHashStore createContentHashStore(final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final Map<String, Object> defaultDataMap) {
+        final String hashStoreFile = paramMap.getAsString(HASH_STORE_FILE_PARAM);
+        if (StringUtil.isBlank(hashStoreFile)) {
+            return null;
+        }
+        logger.info("{}={}, {}={}", HASH_STORE_FILE_PARAM, hashStoreFile, HASH_KEY_FIELD_PARAM, paramMap.getAsString(HASH_KEY_FIELD_PARAM));
+        final long configHash = ContentHashStore.hash(List.of(scriptMap, defaultDataMap, paramMap.getAsString(HASH_KEY_FIELD_PARAM, "")));
+        final ContentHashStore contentHashStore = new ContentHashStore(Paths.get(hashStoreFile.trim()), configHash);
+        try {
+            contentHashStore.load();
+        } catch (final IOException e) {
+            logger.warn("Failed to load content hashes from {}. All records are stored.", hashStoreFile, e);
+        }
+        return contentHashStore;
+    }
+
+    private CheckpointStore createCheckpointStore(final DataStoreParams paramMap) {
+        final String checkpointFile = paramMap.getAsString(CHECKPOINT_FILE_PARAM);
+        if (StringUtil.isBlank(checkpointFile)) {
+            return null;
+        }
+        logger.info("{}={}", CHECKPOINT_FILE_PARAM, checkpointFile);
+        final CheckpointStore checkpointStore = new CheckpointStore(Paths.get(checkpointFile.trim()), objectMapper);
+        try {
+            checkpointStore.load();
+        } catch (final IOException e) {
+            logger.warn("Failed to load checkpoints from {}. All files are read from the beginning.", checkpointFile, e);
+        }
+        return checkpointStore;
+    }
+
+    private void saveCheckpoints(final CrawlContext context) {
+        try {
+            context.checkpointStore.save();
+        } catch (final IOException e) {
+            logger.warn("Failed to save checkpoints.", e);
+        }
+    }
+
+    private StoreDispatcher<DataStoreParams> createStoreDispatcher(final DataStoreParams paramMap) {
+        final String storeMode = paramMap.getAsString(STORE_MODE_PARAM, STORE_MODE_THREAD).trim().toLowerCase(Locale.ROOT);
+        switch (storeMode) {
+        case STORE_MODE_THREAD:
+            return null;
+        case STORE_MODE_VIRTUAL:
+            final int storeConcurrency =
+                    Math.max(getIntParam(paramMap, STORE_CONCURRENCY_PARAM, StoreDispatcher.getDefaultConcurrency()), 1);
+            logger.info("{}={}, {}={}, virtualThreads={}", STORE_MODE_PARAM, storeMode, STORE_CONCURRENCY_PARAM, storeConcurrency,
+                    StoreDispatcher.isVirtualThreadAvailable());
+            // each in-flight store has its own params because CRAWLER_STATS_KEY is set per record
+            return new StoreDispatcher<>(storeConcurrency, paramMap::newInstance);
+        default:
+            throw new DataStoreException("Unknown " + STORE_MODE_PARAM + ": " + storeMode);
+        }
+    }
+
+    private void crawlFiles(final CrawlContext context, final DataStoreParams paramMap, final List<File> fileList, final boolean watch,
+            final boolean follow) {
+        if (follow) {
+            followFiles(context, paramMap, fileList);
+            return;
+        }
+        if (!watch) {
+            processFiles(context, paramMap, fileList);
+            return;
+        }
+        // the watcher is started first, so that files created while the listed files are read are not missed
+        try (DirectoryWatcher watcher = createDirectoryWatcher(context, paramMap, fileList)) {
+            processFiles(context, paramMap, fileList);
+            watchFiles(context, paramMap, watcher);
+        } catch (final IOException e) {
+            throw new DataStoreException("Failed to watch " + paramMap.getAsString(DIRS_PARAM), e);
+        }
+    }
+
+    private DirectoryWatcher createDirectoryWatcher(final CrawlContext context, final DataStoreParams paramMap, final List<File> fileList)
+            throws IOException {
+        final String value = paramMap.getAsString(DIRS_PARAM);
+        if (StringUtil.isBlank(value)) {
+            throw new DataStoreException(WATCH_PARAM + " requires " + DIRS_PARAM + ".");
+        }
+        final List<Path> roots = new ArrayList<>();
+        for (final String path : value.split(",")) {
+            final File dir = new File(path);
+            if (dir.isDirectory()) {
+                roots.add(dir.toPath());
+            }
+        }
+        final long debounce = getLongParam(paramMap, WATCH_DEBOUNCE_PARAM, DEFAULT_WATCH_DEBOUNCE);
+        logger.info("{}=true, {}={}", WATCH_PARAM, WATCH_DEBOUNCE_PARAM, debounce);
+        final DirectoryWatcher watcher = new DirectoryWatcher(roots, createDirectoryScanner(paramMap, context.shardSelector), debounce);
+        try {
+            watcher.markReported(fileList);
+            watcher.start();
+        } catch (final IOException e) {
+            watcher.close();
+            throw e;
+        }
+        return watcher;
+    }
+
+    /**
+     * Reads files reported by the watcher until the crawler is stopped.
+     * Files are read by fileParallelism threads through a bounded queue. When the queue is full,
+     * the watcher thread reads the file itself, so that a burst of files holds back the watcher
+     * instead of piling up work.
+     */
+    private void watchFiles(final CrawlContext context, final DataStoreParams paramMap, final DirectoryWatcher watcher) {
+        final int numOfThreads = Math.max(getIntParam(paramMap, FILE_PARALLELISM_PARAM, 1), 1);
+        final int queueSize = Math.max(getIntParam(paramMap, WATCH_QUEUE_SIZE_PARAM, DEFAULT_WATCH_QUEUE_SIZE), 1);
+        logger.info("Watching {} with {} threads: {}={}", paramMap.getAsString(DIRS_PARAM), numOfThreads, WATCH_QUEUE_SIZE_PARAM,
+                queueSize);
+        final ExecutorService executorService = new ThreadPoolExecutor(numOfThreads, numOfThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+        final Set<File> activeFiles = ConcurrentHashMap.newKeySet();
+        try {
+            while (alive) {
+                for (final File file : watcher.poll(WATCH_POLL_TIMEOUT)) {
+                    if (!alive) {
+                        break;
+                    }
+                    if (!activeFiles.add(file)) {
+                        // the file changed while it is read, so it is read again later
+                        watcher.retry(file);
+                        continue;
+                    }
+                    final DataStoreParams fileParamMap = paramMap.newInstance();
+                    executorService.execute(() -> {
+                        try {
+                            processFile(context, fileParamMap, file);
+                            if (context.checkpointStore != null && context.processor.isSynchronous()) {
+                                saveCheckpoints(context);
+                            }
+                        } catch (final Exception e) {
+                            logger.warn("Failed to process {}", file.getAbsolutePath(), e);
+                        } finally {
+                            activeFiles.remove(file);
+                        }
+                    });
+                }
+            }
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } finally {
+            ExecutorUtil.shutdown(executorService);
+        }
+    }
+
+    /**
+     * Reads lines appended to the files until the crawler is stopped.
+     * Files which cannot be followed, such as compressed files, archives and JSON arrays, are read once.
+     */
+    private void followFiles(final CrawlContext context, final DataStoreParams paramMap, final List<File> fileList) {
+        final long interval = Math.max(getLongParam(paramMap, FOLLOW_INTERVAL_PARAM, DEFAULT_FOLLOW_INTERVAL), 1L);
+        logger.info("{}=true, {}={}", FOLLOW_PARAM, FOLLOW_INTERVAL_PARAM, interval);
+        final List<File> followedFiles = new ArrayList<>();
         for (final File file : fileList) {
-            processFile(dataConfig, callback, paramMap, scriptMap, defaultDataMap, file, fileEncoding);
+            if (context.shardSelector != null && context.shardSelector.isSplit(file) && !context.shardSelector.isAssigned(file, 0)) {
+                // appended lines cannot be split by ranges, so a large file is followed by one crawler
+                logger.info("{} is followed by another crawler.", file.getAbsolutePath());
+                context.processor.markIncomplete(file.getAbsolutePath());
+            } else if (context.fileReader.isFollowable(file)) {
+                followedFiles.add(file);
+            } else {
+                logger.info("{} cannot be followed, so it is read once.", file.getAbsolutePath());
+                processFile(context, paramMap, file);
+            }
+        }
+        final FollowReader followReader =
+                new FollowReader(context.fileReader.getRecordParser(), context.recordStats, () -> alive, interval);
+        if (context.checkpointStore != null) {
+            followReader.setCheckpointStore(context.checkpointStore, context.checkpointInterval);
+        }
+        try {
+            followReader.follow(paramMap, context.processor, followedFiles);
+        } finally {
+            context.processor.finish(paramMap);
+        }
+    }
+
+    private void processFiles(final CrawlContext context, final DataStoreParams paramMap, final List<File> fileList) {
+        final int fileParallelism = getIntParam(paramMap, FILE_PARALLELISM_PARAM, 1);
+        if (fileParallelism <= 1) {
+            for (final File file : fileList) {
+                if (!alive) {
+                    break;
+                }
+                processFile(context, paramMap, file);
+            }
+            retryBusyFiles(context, paramMap);
+            return;
+        }
+
+        logger.info("{}={}", FILE_PARALLELISM_PARAM, fileParallelism);
+        final ExecutorService executorService = ExecutorUtil.newFixedThreadPool(fileParallelism);
+        try {
+            for (final File file : fileList) {
+                if (!alive) {
+                    break;
+                }
+                // each file has its own params because CRAWLER_STATS_KEY is updated per record
+                final DataStoreParams fileParamMap = paramMap.newInstance();
+                executorService.execute(() -> {
+                    try {
+                        processFile(context, fileParamMap, file);
+                    } catch (final Exception e) {
+                        logger.warn("Failed to process {}", file.getAbsolutePath(), e);
+                        context.processor.markIncomplete(file.getAbsolutePath());
+                    }
+                });
+            }
+        } finally {
+            ExecutorUtil.shutdown(executorService);
         }
+        retryBusyFiles(context, paramMap);
     }
 
-    private List<File> getFileList(final DataStoreParams paramMap) {
+    /**
+     * Waits for files leased by other crawlers, and reads those whose leases have expired.
+     */
+    private void retryBusyFiles(final CrawlContext context, final DataStoreParams paramMap) {
+        while (alive && !context.busyFiles.isEmpty()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Waiting for {} files leased by other crawlers", context.busyFiles.size());
+            }
+            sleep(context.leaseCoordinator.getRenewInterval());
+            for (int i = context.busyFiles.size(); i > 0 && alive; i--) {
+                final File file = context.busyFiles.poll();
+                if (file == null) {
+                    break;
+                }
+                // the file is added again if it is still leased
+                processFile(context, paramMap, file);
+            }
+        }
+    }
+
+    private void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+    }
+
+    private int getIntParam(final DataStoreParams paramMap, final String key, final int defaultValue) {
+        final String value = paramMap.getAsString(key);
+        if (StringUtil.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new DataStoreException("Invalid " + key + ": " + value, e);
+        }
+    }
+
+    private long getLongParam(final DataStoreParams paramMap, final String key, final long defaultValue) {
+        final String value = paramMap.getAsString(key);
+        if (StringUtil.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new DataStoreException("Invalid " + key + ": " + value, e);
+        }
+    }
+
+    protected JsonRecordParser createRecordParser(final DataStoreParams paramMap, final CompiledScriptMap scripts) {
+        final String name = paramMap.getAsString(PARSER_PARAM, DatabindJsonRecordParser.NAME).trim().toLowerCase(Locale.ROOT);
+        logger.info("{}={}", PARSER_PARAM, name);
+        final JsonRecordParser recordParser = switch (name) {
+        case DatabindJsonRecordParser.NAME -> new DatabindJsonRecordParser(objectMapper);
+        case StreamingJsonRecordParser.NAME -> new StreamingJsonRecordParser(objectMapper.getFactory());
+        default -> throw new DataStoreException("Unknown " + PARSER_PARAM + ": " + name);
+        };
+        final Set<String> includeFields = getIncludeFields(paramMap, scripts);
+        if (includeFields == null) {
+            return recordParser;
+        }
+        logger.info("{}={}", INCLUDE_FIELDS_PARAM, includeFields);
+        return new ProjectingJsonRecordParser(recordParser, includeFields);
+    }
+
+    /**
+     * Returns top-level fields to read from records.
+     * Fields in includeFields are used if specified. Otherwise, when fieldProjection is true,
+     * fields are derived from the script templates. The hashKeyField is always included,
+     * because records are identified by it.
+     *
+     * @return The field names, or null to read all fields.
+     */
+    protected Set<String> getIncludeFields(final DataStoreParams paramMap, final CompiledScriptMap scripts) {
+        final Set<String> names;
+        final String value = paramMap.getAsString(INCLUDE_FIELDS_PARAM);
+        if (StringUtil.isNotBlank(value)) {
+            names = stream(value.split(",")).get(stream -> stream.map(String::trim).filter(StringUtil::isNotEmpty)
+                    .collect(Collectors.toCollection(LinkedHashSet::new)));
+        } else if (Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(FIELD_PROJECTION_PARAM))) {
+            final Set<String> referencedNames = scripts.getReferencedNames();
+            if (referencedNames == null) {
+                logger.info("Scripts may read fields by computed names, so all fields are read.");
+                return null;
+            }
+            names = new LinkedHashSet<>(referencedNames);
+        } else {
+            return null;
+        }
+        final String hashKeyField = paramMap.getAsString(HASH_KEY_FIELD_PARAM);
+        if (StringUtil.isNotBlank(hashKeyField)) {
+            names.add(hashKeyField);
+        }
+        return names;
+    }
+
+    private List<File> getFileList(final DataStoreParams paramMap, final ShardSelector shardSelector) {
         String value = paramMap.getAsString(FILES_PARAM);
         final List<File> fileList = new ArrayList<>();
+        final boolean compressed = !JsonFileReader.COMPRESSION_NONE.equals(getCompression(paramMap));
+        final boolean archive = Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(ARCHIVE_PARAM));
         if (StringUtil.isBlank(value)) {
             value = paramMap.getAsString(DIRS_PARAM);
             if (StringUtil.isBlank(value)) {
                 throw new DataStoreException(FILES_PARAM + " and " + DIRS_PARAM + " are blank.");
             }
             logger.info("{}={}", DIRS_PARAM, value);
-            final String[] values = value.split(",");
-            for (final String path : values) {
-                final File dir = new File(path);
-                if (dir.isDirectory()) {
-                    stream(dir.listFiles()).of(stream -> stream.filter(f -> isDesiredFile(f.getParentFile(), f.getName()))
-                            .sorted((f1, f2) -> (int) (f1.lastModified() - f2.lastModified())).forEach(fileList::add));
-                } else {
-                    logger.warn("{} is not a directory.", path);
+            final DirectoryScanner scanner = createDirectoryScanner(paramMap, shardSelector);
+            final int listParallelism = getIntParam(paramMap, LIST_PARALLELISM_PARAM, 1);
+            final ExecutorService executorService = listParallelism > 1 ? ExecutorUtil.newFixedThreadPool(listParallelism) : null;
+            try {
+                final String[] values = value.split(",");
+                for (final String path : values) {
+                    final File dir = new File(path);
+                    if (dir.isDirectory()) {
+                        try {
+                            fileList.addAll(scanner.scan(dir.toPath(), executorService));
+                        } catch (final IOException e) {
+                            logger.warn("Failed to list files in {}", path, e);
+                        }
+                    } else {
+                        logger.warn("{} is not a directory.", path);
+                    }
+                }
+            } finally {
+                if (executorService != null) {
+                    ExecutorUtil.shutdown(executorService);
                 }
             }
         } else {
             logger.info("{}={}", FILES_PARAM, value);
             final String[] values = value.split(",");
-            for (final String path : values) {
+            for (final String configuredPath : values) {
+                final String path = configuredPath.trim();
                 final File file = new File(path);
-                if (file.isFile() && isDesiredFile(file.getParentFile(), file.getName())) {
-                    fileList.add(file);
+                if (file.isFile() && isDesiredFile(file.getParentFile(), file.getName(), compressed, archive)) {
+                    if (shardSelector == null || shardSelector.select(path, file)) {
+                        fileList.add(file);
+                    }
                 } else {
                     logger.warn("{} is not found.", path);
                 }
@@ -117,8 +858,33 @@ public class JsonDataStore extends AbstractDataStore {
         return fileList;
     }
 
-    private boolean isDesiredFile(final File parentFile, final String filename) {
-        final String name = filename.toLowerCase(Locale.ROOT);
+    private DirectoryScanner createDirectoryScanner(final DataStoreParams paramMap, final ShardSelector shardSelector) {
+        final boolean compressed = !JsonFileReader.COMPRESSION_NONE.equals(getCompression(paramMap));
+        final boolean archive = Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(ARCHIVE_PARAM));
+        final int maxDepth = getIntParam(paramMap, MAX_DEPTH_PARAM, 1);
+        final List<String> includes = splitPatterns(paramMap.getAsString(INCLUDE_PATTERNS_PARAM));
+        final List<String> excludes = splitPatterns(paramMap.getAsString(EXCLUDE_PATTERNS_PARAM));
+        final boolean followSymlinks = Constants.TRUE.equalsIgnoreCase(paramMap.getAsString(FOLLOW_SYMLINKS_PARAM));
+        if (maxDepth != 1 || !includes.isEmpty() || !excludes.isEmpty() || followSymlinks) {
+            logger.info("{}={}, {}={}, {}={}, {}={}", MAX_DEPTH_PARAM, maxDepth, INCLUDE_PATTERNS_PARAM, includes, EXCLUDE_PATTERNS_PARAM,
+                    excludes, FOLLOW_SYMLINKS_PARAM, followSymlinks);
+        }
+        return new DirectoryScanner(maxDepth, includes, excludes, followSymlinks, name -> isDesiredFile(null, name, compressed, archive),
+                shardSelector);
+    }
+
+    private List<String> splitPatterns(final String value) {
+        if (StringUtil.isBlank(value)) {
+            return List.of();
+        }
+        return stream(value.split(",")).get(stream -> stream.map(String::trim).filter(StringUtil::isNotEmpty).toList());
+    }
+
+    private boolean isDesiredFile(final File parentFile, final String filename, final boolean compressed, final boolean archive) {
+        if (archive && ArchiveReader.getArchiveType(filename) != null) {
+            return true;
+        }
+        final String name = (compressed ? Compression.stripSuffix(filename) : filename).toLowerCase(Locale.ROOT);
         for (final String suffix : fileSuffixes) {
             if (name.endsWith(suffix)) {
                 return true;
@@ -131,62 +897,261 @@ public class JsonDataStore extends AbstractDataStore {
         return paramMap.getAsString(FILE_ENCODING_PARAM, Constants.UTF_8);
     }
 
-    private void processFile(final DataConfig dataConfig, final IndexUpdateCallback callback, final DataStoreParams paramMap,
-            final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap, final File file, final String fileEncoding) {
-        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
-        final ObjectMapper objectMapper = new ObjectMapper();
-
-        final String scriptType = getScriptType(paramMap);
-        logger.info("Loading {}", file.getAbsolutePath());
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), fileEncoding))) {
-            int count = 0;
-            for (String line; (line = br.readLine()) != null;) {
-                count++;
-                final StatsKeyObject statsKey = new StatsKeyObject(file.getAbsolutePath() + "@" + count);
-                paramMap.put(Constants.CRAWLER_STATS_KEY, statsKey);
-                final Map<String, Object> dataMap = new HashMap<>(defaultDataMap);
-                try {
-                    crawlerStatsHelper.begin(statsKey);
-                    final Map<String, Object> source = objectMapper.readValue(line, new TypeReference<Map<String, Object>>() {
-                    });
-                    final Map<String, Object> resultMap = new LinkedHashMap<>(paramMap.asMap());
+    private String getFormat(final DataStoreParams paramMap) {
+        final String format = paramMap.getAsString(FORMAT_PARAM, JsonFileReader.FORMAT_AUTO).trim().toLowerCase(Locale.ROOT);
+        return switch (format) {
+        case JsonFileReader.FORMAT_AUTO, JsonFileReader.FORMAT_JSONL, JsonFileReader.FORMAT_ARRAY -> format;
+        default -> throw new DataStoreException("Unknown " + FORMAT_PARAM + ": " + format);
+        };
+    }
 
-                    resultMap.putAll(source);
+    private String getCompression(final DataStoreParams paramMap) {
+        final String compression = paramMap.getAsString(COMPRESSION_PARAM, JsonFileReader.COMPRESSION_AUTO).trim().toLowerCase(Locale.ROOT);
+        return switch (compression) {
+        case JsonFileReader.COMPRESSION_AUTO, JsonFileReader.COMPRESSION_NONE -> compression;
+        default -> throw new DataStoreException("Unknown " + COMPRESSION_PARAM + ": " + compression);
+        };
+    }
 
-                    crawlerStatsHelper.record(statsKey, StatsAction.PREPARED);
+    private String getIoMode(final DataStoreParams paramMap) {
+        final String ioMode = paramMap.getAsString(IO_MODE_PARAM, JsonFileReader.IO_MODE_STREAM).trim().toLowerCase(Locale.ROOT);
+        return switch (ioMode) {
+        case JsonFileReader.IO_MODE_STREAM, JsonFileReader.IO_MODE_MMAP -> ioMode;
+        default -> throw new DataStoreException("Unknown " + IO_MODE_PARAM + ": " + ioMode);
+        };
+    }
 
-                    for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
-                        final Object convertValue = convertValue(scriptType, entry.getValue(), resultMap);
-                        if (convertValue != null) {
-                            dataMap.put(entry.getKey(), convertValue);
-                        }
+    protected void processFile(final CrawlContext context, final DataStoreParams paramMap, final File file) {
+        final boolean split = isSplit(context, file);
+        if (context.leaseCoordinator == null || split) {
+            // ranges of a split file are leased one by one
+            readFile(context, paramMap, file, split);
+            return;
+        }
+        final String path = file.getAbsolutePath();
+        final String unit = getWorkUnit(context, file);
+        final String state = getWorkState(file);
+        final LeaseCoordinator.Lease lease;
+        try {
+            lease = context.leaseCoordinator.acquire(unit, state);
+            if (lease == null) {
+                if (context.leaseCoordinator.isDone(unit, state)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("{} has been read by another crawler.", path);
                     }
+                    context.processor.markIncomplete(path);
+                } else {
+                    context.busyFiles.add(file);
+                }
+                return;
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to lease {}", path, e);
+            context.processor.markIncomplete(path);
+            return;
+        }
+        boolean completed = false;
+        try {
+            // records have been stored by this thread, as the processor is synchronous
+            completed = readFile(context, paramMap, file, false) && alive && !context.processor.hasFailure(path);
+        } finally {
+            context.leaseCoordinator.release(lease, completed);
+        }
+    }
 
-                    crawlerStatsHelper.record(statsKey, StatsAction.EVALUATED);
-
-                    if (dataMap.get("url") instanceof final String statsUrl) {
-                        statsKey.setUrl(statsUrl);
-                    }
+    /**
+     * Checks if the file is read by ranges, which are assigned to shards or leased separately.
+     */
+    private boolean isSplit(final CrawlContext context, final File file) {
+        if (context.shardSelector != null) {
+            return context.shardSelector.isSplit(file);
+        }
+        if (context.leaseCoordinator == null || context.leaseRangeSize <= 0 || file.length() <= context.leaseRangeSize) {
+            return false;
+        }
+        return context.fileReader.isSplittable(file);
+    }
 
-                    callback.store(paramMap, dataMap);
-                    crawlerStatsHelper.record(statsKey, StatsAction.FINISHED);
-                } catch (final Throwable t) {
-                    logger.warn("Crawling Access Exception at : {}", dataMap, t);
-                    final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
-                    failureUrlService.store(dataConfig, t.getClass().getCanonicalName(), statsKey.getId(), t);
-                    crawlerStatsHelper.record(statsKey, StatsAction.EXCEPTION);
-                } finally {
-                    crawlerStatsHelper.done(statsKey);
-                }
+    /**
+     * Returns the name of the file which is the same on all crawlers sharing the data config, even if they mount
+     * the directories at different paths: the index of the configured directory and the path relative to it,
+     * or the configured path for files which are not in the directories.
+     */
+    protected static String getWorkUnit(final CrawlContext context, final File file) {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        for (int i = 0; i < context.roots.size(); i++) {
+            final Path root = context.roots.get(i);
+            if (path.startsWith(root)) {
+                return i + ":" + root.relativize(path).toString().replace(File.separatorChar, '/');
             }
+        }
+        return file.getPath().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return The configured directories, or an empty list if files are configured.
+     */
+    private List<Path> getRoots(final DataStoreParams paramMap) {
+        final String value = paramMap.getAsString(DIRS_PARAM);
+        if (StringUtil.isNotBlank(paramMap.getAsString(FILES_PARAM)) || StringUtil.isBlank(value)) {
+            return List.of();
+        }
+        return stream(value.split(",")).get(stream -> stream.map(path -> new File(path).toPath().toAbsolutePath().normalize()).toList());
+    }
+
+    private static String getWorkState(final File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * Reads the file.
+     *
+     * @return true if the file has been read without I/O errors.
+     */
+    private boolean readFile(final CrawlContext context, final DataStoreParams paramMap, final File file, final boolean split) {
+        logger.info("Loading {}", file.getAbsolutePath());
+        final long startTime = System.currentTimeMillis();
+        if (context.recordStats != null) {
+            context.recordStats.startReading();
+        }
+        try {
+            final long count = context.fileReader.read(paramMap, context.processor, file, split ? createSplitReader(context) : null);
+            // stats of the crawl are logged by the processor, as files are read in parallel
+            final long elapsed = System.currentTimeMillis() - startTime;
+            logger.info("Loaded {} records from {} in {}ms ({}/s)", count, file.getAbsolutePath(), elapsed,
+                    elapsed > 0 ? count * 1000 / elapsed : count);
+            return true;
         } catch (final FileNotFoundException e) {
             logger.warn("Source file {} does not exist.", file, e);
+            context.processor.markIncomplete(file.getAbsolutePath());
+            return false;
         } catch (final IOException e) {
             logger.warn("IO Error occurred while reading source file.", e);
+            context.processor.markIncomplete(file.getAbsolutePath());
+            return false;
+        } finally {
+            context.processor.finish(paramMap);
+        }
+    }
+
+    /**
+     * Creates a reader of a split file, which reads the ranges assigned to this crawler or leased by it.
+     */
+    private JsonFileReader.SplitReader createSplitReader(final CrawlContext context) {
+        return new JsonFileReader.SplitReader() {
+            @Override
+            public long read(final DataStoreParams paramMap, final RecordSink sink, final File file, final FileChannel channel)
+                    throws IOException {
+                final long rangeSize = context.shardSelector != null ? context.shardSelector.getRangeSize() : context.leaseRangeSize;
+                final long retryInterval = context.leaseCoordinator != null ? context.leaseCoordinator.getRenewInterval() : 0L;
+                final String state = getWorkState(file);
+                return context.fileReader.getRangeReader().readSplit(channel, rangeSize, retryInterval,
+                        (range, start, end, firstLine) -> readSplitRange(context, paramMap, sink, file, state, range, start, end,
+                                firstLine));
+            }
+
+            @Override
+            public boolean isAssigned(final File file) {
+                return context.shardSelector == null || context.shardSelector.isAssigned(file, 0);
+            }
+        };
+    }
+
+    /**
+     * Reads the range if it is assigned to this crawler, or if this crawler takes its lease.
+     *
+     * @return The number of lines, RANGE_SKIPPED if the range is read by another crawler,
+     *         or RANGE_BUSY if the range is leased by another crawler.
+     */
+    private long readSplitRange(final CrawlContext context, final DataStoreParams paramMap, final RecordSink sink, final File file,
+            final String state, final long range, final long start, final long end, final long firstLine) throws IOException {
+        final RangeReader rangeReader = context.fileReader.getRangeReader();
+        if (context.shardSelector != null) {
+            if (!context.shardSelector.isAssigned(file, range)) {
+                return RangeReader.RANGE_SKIPPED;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Reading range {} of {}: {}-{}", range, file.getAbsolutePath(), start, end);
+            }
+            return rangeReader.readRange(paramMap, sink, file, start, end, firstLine);
+        }
+        final String unit = getWorkUnit(context, file) + "#" + range;
+        final LeaseCoordinator.Lease lease = context.leaseCoordinator.acquire(unit, state);
+        if (lease == null) {
+            // records of the range may have been stored by this crawler in the previous crawl
+            sink.markIncomplete(file.getAbsolutePath());
+            return context.leaseCoordinator.isDone(unit, state) ? RangeReader.RANGE_SKIPPED : RangeReader.RANGE_BUSY;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reading range {} of {}: {}-{}", range, file.getAbsolutePath(), start, end);
+        }
+        boolean completed = false;
+        try {
+            final long lines = rangeReader.readRange(paramMap, sink, file, start, end, firstLine);
+            // a failure in another range also keeps this range from being done, which only costs a read in the next crawl
+            completed = alive && !context.processor.hasFailure(file.getAbsolutePath());
+            return lines;
+        } finally {
+            context.leaseCoordinator.release(lease, completed);
+        }
+    }
+
+    /**
+     * Starts a pipeline which parses and evaluates records on process threads and stores them on store threads.
+     */
+    private void startPipeline(final RecordProcessor processor, final DataStoreParams paramMap) {
+        final int processThreads =
+                Math.max(getIntParam(paramMap, PIPELINE_PROCESS_THREADS_PARAM, Runtime.getRuntime().availableProcessors()), 1);
+        // store calls are dispatched to virtual threads by a single store worker
+        final int storeThreads = processor.hasStoreDispatcher() ? 1 : Math.max(getIntParam(paramMap, PIPELINE_STORE_THREADS_PARAM, 1), 1);
+        final int queueSize = Math.max(getIntParam(paramMap, PIPELINE_QUEUE_SIZE_PARAM, 1000), 1);
+        final long logInterval = getLongParam(paramMap, PIPELINE_LOG_INTERVAL_PARAM, 60000L);
+        logger.info("Pipeline: processThreads={}, storeThreads={}, queueSize={}", processThreads, storeThreads, queueSize);
+        processor.startPipeline(getName(), processThreads, storeThreads, queueSize, logInterval, paramMap);
+    }
+
+    /**
+     * Components of a crawl. Records are read by the file reader, and stored by the processor.
+     */
+    protected static class CrawlContext {
+        protected final RecordProcessor processor;
+
+        protected final JsonFileReader fileReader;
+
+        protected final RecordStats recordStats;
+
+        protected CheckpointStore checkpointStore;
+
+        protected long checkpointInterval;
+
+        protected ContentHashStore contentHashStore;
+
+        protected RecordTracker recordTracker;
+
+        protected ShardSelector shardSelector;
+
+        protected LeaseCoordinator leaseCoordinator;
+
+        protected long leaseRangeSize;
+
+        /** Configured directories, which lease units are named relative to. */
+        protected List<Path> roots = List.of();
+
+        /** Files which were leased by other crawlers when they were read. */
+        protected final Queue<File> busyFiles = new ConcurrentLinkedQueue<>();
+
+        protected CrawlContext(final RecordProcessor processor, final JsonFileReader fileReader, final RecordStats recordStats) {
+            this.processor = processor;
+            this.fileReader = fileReader;
+            this.recordStats = recordStats;
         }
     }
 
     public void setFileSuffixes(final String[] fileSuffixes) {
         this.fileSuffixes = fileSuffixes;
     }
-}
\ No newline at end of file
+
+    public void setMmapWindowSize(final long mmapWindowSize) {
+        this.mmapWindowSize = mmapWindowSize;
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.ds.json.CheckpointStore.Checkpoint;
+import org.codelibs.fess.entity.DataStoreParams;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads records from JSON Lines files and files of a JSON array, which may be compressed.
+ * A file is read as a stream by default. A seekable UTF-8 file may instead be mapped into memory,
+ * split into ranges which are read in parallel, or read from its checkpoint.
+ */
+public class JsonFileReader {
+    private static final Logger logger = LogManager.getLogger(JsonFileReader.class);
+
+    public static final String FORMAT_AUTO = "auto";
+
+    public static final String FORMAT_JSONL = "jsonl";
+
+    public static final String FORMAT_ARRAY = "array";
+
+    public static final String IO_MODE_STREAM = "stream";
+
+    public static final String IO_MODE_MMAP = "mmap";
+
+    public static final String COMPRESSION_AUTO = "auto";
+
+    public static final String COMPRESSION_NONE = "none";
+
+    /** The number of lines between checks of the checkpoint interval. */
+    private static final int CHECKPOINT_CHECK_LINES = 1000;
+
+    private static final int DETECT_LIMIT = 8192;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final int DECOMPRESS_BUFFER_SIZE = 256 * 1024;
+
+    private static final int READ_AHEAD_BUFFERS = 4;
+
+    private final JsonRecordParser recordParser;
+
+    private final String fileEncoding;
+
+    private final boolean utf8;
+
+    private final RecordStats recordStats;
+
+    private final BooleanSupplier alive;
+
+    private final RangeReader rangeReader;
+
+    private String format = FORMAT_AUTO;
+
+    private String compression = COMPRESSION_AUTO;
+
+    private boolean decompressThread;
+
+    private String ioMode = IO_MODE_STREAM;
+
+    private long mmapWindowSize = 256L * 1024 * 1024;
+
+    private int splitParallelism = 1;
+
+    private long splitMinSize;
+
+    private CheckpointStore checkpointStore;
+
+    private long checkpointInterval;
+
+    private ArchiveReader archiveReader;
+
+    /**
+     * Reads a file which is split into ranges, which are assigned to shards or leased separately.
+     */
+    public interface SplitReader {
+        /**
+         * Reads the ranges of the file which are read by this crawler.
+         *
+         * @param paramMap The params of the current thread.
+         * @param sink The sink of records.
+         * @param file The file.
+         * @param channel The channel of the file.
+         * @return The number of records.
+         * @throws IOException if an I/O error occurs.
+         */
+        long read(DataStoreParams paramMap, RecordSink sink, File file, FileChannel channel) throws IOException;
+
+        /**
+         * @param file The file which cannot be split, such as a compressed file.
+         * @return true if the file is read as a whole by this crawler.
+         */
+        boolean isAssigned(File file);
+    }
+
+    /**
+     * @param recordParser The record parser.
+     * @param fileEncoding The encoding of files.
+     * @param recordStats The aggregated stats, or null.
+     * @param alive Returns false when the crawler is stopped.
+     */
+    public JsonFileReader(final JsonRecordParser recordParser, final String fileEncoding, final RecordStats recordStats,
+            final BooleanSupplier alive) {
+        this.recordParser = recordParser;
+        this.fileEncoding = fileEncoding;
+        this.recordStats = recordStats;
+        this.alive = alive;
+        utf8 = isUtf8(fileEncoding);
+        rangeReader = new RangeReader(recordParser, recordStats, alive);
+    }
+
+    public void setFormat(final String format) {
+        this.format = format;
+    }
+
+    /**
+     * @param compression auto to detect compression by file suffixes and magic bytes, or none.
+     * @param decompressThread true to decompress on a separate thread, which reads ahead.
+     */
+    public void setCompression(final String compression, final boolean decompressThread) {
+        this.compression = compression;
+        this.decompressThread = decompressThread;
+    }
+
+    /**
+     * @param ioMode stream, or mmap to map seekable UTF-8 files into memory.
+     * @param mmapWindowSize The size of each mapped window.
+     */
+    public void setIoMode(final String ioMode, final long mmapWindowSize) {
+        this.ioMode = ioMode;
+        this.mmapWindowSize = mmapWindowSize;
+    }
+
+    /**
+     * @param splitParallelism The number of threads which read ranges of a file.
+     * @param splitMinSize The minimum size of files which are split into ranges.
+     */
+    public void setSplit(final int splitParallelism, final long splitMinSize) {
+        this.splitParallelism = splitParallelism;
+        this.splitMinSize = splitMinSize;
+    }
+
+    /**
+     * Resumes files from their checkpoints, and records how far they have been read.
+     *
+     * @param checkpointStore The store of checkpoints.
+     * @param checkpointInterval The interval in milliseconds to save checkpoints while a file is read, or 0.
+     */
+    public void setCheckpointStore(final CheckpointStore checkpointStore, final long checkpointInterval) {
+        this.checkpointStore = checkpointStore;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Reads zip and tar files as archives of record files.
+     *
+     * @param archiveParallelism The number of threads which read members of a zip file.
+     * @param memberFilter Returns true for the names of members to read.
+     */
+    public void setArchive(final int archiveParallelism, final Predicate<String> memberFilter) {
+        archiveReader = new ArchiveReader(this, memberFilter, archiveParallelism, alive);
+    }
+
+    public JsonRecordParser getRecordParser() {
+        return recordParser;
+    }
+
+    public RangeReader getRangeReader() {
+        return rangeReader;
+    }
+
+    public boolean isDecompressed() {
+        return !COMPRESSION_NONE.equals(compression);
+    }
+
+    /**
+     * Reads records of the file.
+     *
+     * @param paramMap The params of the current thread.
+     * @param sink The sink of records.
+     * @param file The file.
+     * @param splitReader Reads the ranges of the file, or null if the file is not split.
+     * @return The number of records.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long read(final DataStoreParams paramMap, final RecordSink sink, final File file, final SplitReader splitReader)
+            throws IOException {
+        if (archiveReader != null && ArchiveReader.getArchiveType(file.getName()) != null) {
+            return archiveReader.read(paramMap, sink, file);
+        }
+        final String path = file.getAbsolutePath();
+        try (FileInputStream fis = new FileInputStream(file); InputStream raw = new BufferedInputStream(fis)) {
+            if (checkpointStore != null && utf8 && splitReader == null) {
+                final Checkpoint checkpoint = checkpointStore.getResumePoint(file, fis.getChannel());
+                if (checkpoint != null && checkpoint.getOffset() > 0) {
+                    logger.info("Resuming {} from line {} at offset {}", path, checkpoint.getLines(), checkpoint.getOffset());
+                    // records before the offset are not read again
+                    sink.markIncomplete(path);
+                    fis.getChannel().position(checkpoint.getOffset());
+                    return readCheckpointedLines(paramMap, sink, file, fis.getChannel(), raw, checkpoint.getOffset(),
+                            checkpoint.getLines());
+                }
+            }
+            final Compression detected = detectCompression(file.getName(), raw);
+            try (InputStream in = detected == null ? raw : openDecompressedStream(path, raw, detected)) {
+                // compressed files are not seekable, so they are always read as a stream
+                final boolean seekable = detected == null;
+                final boolean isArray = isArrayFormat(path, in);
+                if (splitReader != null) {
+                    if (seekable && utf8 && !isArray) {
+                        return splitReader.read(paramMap, sink, file, fis.getChannel());
+                    }
+                    if (!splitReader.isAssigned(file)) {
+                        logger.info("{} cannot be split, so it is read by another crawler.", path);
+                        sink.markIncomplete(path);
+                        return 0;
+                    }
+                }
+                if (isArray) {
+                    return readArray(paramMap, sink, path, in);
+                }
+                if (seekable && utf8 && checkpointStore != null) {
+                    // checkpointed files are read sequentially to track the offset
+                    return readCheckpointedLines(paramMap, sink, file, fis.getChannel(), in, 0, 0);
+                }
+                if (seekable && utf8 && splitParallelism > 1 && fis.getChannel().size() >= splitMinSize) {
+                    return rangeReader.readParallel(paramMap, sink, file, fis.getChannel(), splitParallelism);
+                }
+                if (seekable && utf8 && IO_MODE_MMAP.equals(ioMode)) {
+                    return readMappedLines(paramMap, sink, file, fis.getChannel());
+                }
+                return readLines(paramMap, sink, path, in);
+            }
+        }
+    }
+
+    /**
+     * Reads records from a stream which is not seekable, such as an archive member.
+     * The stream is closed after reading.
+     *
+     * @param paramMap The params of the current thread.
+     * @param sink The sink of records.
+     * @param path The path of the records.
+     * @param name The name of the stream, whose suffix may tell the compression.
+     * @param raw The stream which supports mark/reset.
+     * @return The number of records.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long readStream(final DataStoreParams paramMap, final RecordSink sink, final String path, final String name,
+            final InputStream raw) throws IOException {
+        try (InputStream in = openStream(path, name, raw)) {
+            if (isArrayFormat(path, in)) {
+                return readArray(paramMap, sink, path, in);
+            }
+            return readLines(paramMap, sink, path, in);
+        }
+    }
+
+    /**
+     * Decompresses the stream if it is compressed.
+     *
+     * @param path The path of the stream.
+     * @param name The name of the stream, whose suffix may tell the compression.
+     * @param raw The stream which supports mark/reset.
+     * @return The decompressed stream, or the given stream if it is not compressed.
+     * @throws IOException if an I/O error occurs.
+     */
+    public InputStream openStream(final String path, final String name, final InputStream raw) throws IOException {
+        final Compression detected = detectCompression(name, raw);
+        return detected == null ? raw : openDecompressedStream(path, raw, detected);
+    }
+
+    /**
+     * Checks if lines appended to the file can be read, which requires an uncompressed UTF-8 JSON Lines file.
+     *
+     * @param file The file.
+     * @return true if the file can be followed.
+     */
+    public boolean isFollowable(final File file) {
+        if (FORMAT_ARRAY.equals(format) || !utf8) {
+            return false;
+        }
+        if (archiveReader != null && ArchiveReader.getArchiveType(file.getName()) != null) {
+            return false;
+        }
+        return !isDecompressed() || Compression.fromFilename(file.getName()) == null;
+    }
+
+    /**
+     * Checks if the file can be split into ranges, which requires an uncompressed UTF-8 JSON Lines file.
+     *
+     * @param file The file.
+     * @return true if the file can be split.
+     */
+    public boolean isSplittable(final File file) {
+        if (!utf8 || archiveReader != null && ArchiveReader.getArchiveType(file.getName()) != null) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return detectCompression(file.getName(), in) == null && !isArrayFormat(file.getAbsolutePath(), in);
+        } catch (final IOException e) {
+            logger.warn("Failed to read {}", file.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads lines from the offset, and records how far the file has been read.
+     * Only '\n' terminated lines are included in the checkpoint, so a line being written is read again in the next crawl.
+     * The checkpoint is not moved once a record of the file fails, so the next crawl reads again from before the failure.
+     */
+    private long readCheckpointedLines(final DataStoreParams paramMap, final RecordSink sink, final File file, final FileChannel channel,
+            final InputStream in, final long offset, final long firstLine) throws IOException {
+        final String path = file.getAbsolutePath();
+        final ByteLineReader reader = new ByteLineReader(in, READ_BUFFER_SIZE, offset == 0);
+        // a checkpoint can be saved in the middle of the file only if records before it have been stored
+        final boolean periodic = checkpointInterval > 0 && sink.isSynchronous();
+        long nextCheckpointTime = System.currentTimeMillis() + checkpointInterval;
+        long line = firstLine;
+        long count = 0;
+        long checkpointOffset = offset;
+        long checkpointLine = firstLine;
+        try {
+            while (reader.next()) {
+                if (!alive.getAsBoolean()) {
+                    break;
+                }
+                line++;
+                count++;
+                sink.accept(paramMap, path, line,
+                        RecordLoader.ofBytes(recordParser, reader.getBuffer(), reader.getOffset(), reader.getLength()));
+                if (reader.isTerminated()) {
+                    checkpointOffset = offset + reader.getLineEnd();
+                    checkpointLine = line;
+                }
+                if (periodic && count % CHECKPOINT_CHECK_LINES == 0 && System.currentTimeMillis() >= nextCheckpointTime) {
+                    sink.flush(paramMap);
+                    if (!sink.hasFailure(path)) {
+                        checkpointStore.put(path, checkpointStore.createCheckpoint(file, channel, checkpointOffset, checkpointLine));
+                        saveCheckpoints();
+                    }
+                    nextCheckpointTime = System.currentTimeMillis() + checkpointInterval;
+                }
+            }
+        } finally {
+            sink.flush(paramMap);
+            if (!sink.hasFailure(path)) {
+                checkpointStore.put(path, checkpointStore.createCheckpoint(file, channel, checkpointOffset, checkpointLine));
+            }
+        }
+        return count;
+    }
+
+    private void saveCheckpoints() {
+        try {
+            checkpointStore.save();
+        } catch (final IOException e) {
+            logger.warn("Failed to save checkpoints.", e);
+        }
+    }
+
+    private boolean isArrayFormat(final String path, final InputStream in) throws IOException {
+        final boolean isArray = switch (format) {
+        case FORMAT_ARRAY -> true;
+        case FORMAT_JSONL -> false;
+        default -> detectArrayFormat(in);
+        };
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reading {} as {}", path, isArray ? FORMAT_ARRAY : FORMAT_JSONL);
+        }
+        return isArray;
+    }
+
+    private Compression detectCompression(final String filename, final InputStream in) throws IOException {
+        if (!isDecompressed()) {
+            return null;
+        }
+        final Compression detected = Compression.fromFilename(filename);
+        if (detected != null) {
+            return detected;
+        }
+        return Compression.detect(in);
+    }
+
+    private InputStream openDecompressedStream(final String path, final InputStream in, final Compression detected) throws IOException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Decompressing {} as {}", path, detected);
+        }
+        InputStream decompressed = detected.decompress(in, DECOMPRESS_BUFFER_SIZE);
+        if (decompressThread) {
+            decompressed = new ReadAheadInputStream(decompressed, DECOMPRESS_BUFFER_SIZE, READ_AHEAD_BUFFERS, "JsonDecompressor");
+        }
+        return new BufferedInputStream(decompressed, DECOMPRESS_BUFFER_SIZE);
+    }
+
+    /**
+     * Checks if the stream starts with a top-level JSON array.
+     * The stream is reset to its original position after the check.
+     *
+     * @param in The input stream which supports mark/reset.
+     * @return true if the first non-whitespace character is '['.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected boolean detectArrayFormat(final InputStream in) throws IOException {
+        in.mark(DETECT_LIMIT);
+        try {
+            for (int i = 0; i < DETECT_LIMIT; i++) {
+                final int b = in.read();
+                switch (b) {
+                case -1:
+                    return false;
+                case '[':
+                    return true;
+                // whitespace, BOM and NUL bytes of UTF-16/32 encodings
+                case ' ', '\t', '\r', '\n', 0x00, 0xEF, 0xBB, 0xBF, 0xFE, 0xFF:
+                    break;
+                default:
+                    return false;
+                }
+            }
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private long readLines(final DataStoreParams paramMap, final RecordSink sink, final String path, final InputStream in)
+            throws IOException {
+        long count = 0;
+        if (utf8) {
+            final ByteLineReader reader = new ByteLineReader(in, READ_BUFFER_SIZE);
+            while (reader.next()) {
+                count++;
+                sink.accept(paramMap, path, count,
+                        RecordLoader.ofBytes(recordParser, reader.getBuffer(), reader.getOffset(), reader.getLength()));
+            }
+        } else {
+            final BufferedReader br = new BufferedReader(new InputStreamReader(in, fileEncoding));
+            for (String line; (line = br.readLine()) != null;) {
+                count++;
+                sink.accept(paramMap, path, count, RecordLoader.ofString(recordParser, line));
+            }
+        }
+        return count;
+    }
+
+    private long readMappedLines(final DataStoreParams paramMap, final RecordSink sink, final File file, final FileChannel channel)
+            throws IOException {
+        final String path = file.getAbsolutePath();
+        long count = 0;
+        try (MappedLineReader reader = new MappedLineReader(channel, mmapWindowSize)) {
+            while (reader.next()) {
+                count++;
+                sink.accept(paramMap, path, count, RecordLoader.ofBuffer(recordParser, reader.getLine()));
+            }
+        }
+        return count;
+    }
+
+    private long readArray(final DataStoreParams paramMap, final RecordSink sink, final String path, final InputStream in)
+            throws IOException {
+        final JsonFactory jsonFactory = recordParser.getFactory();
+        try (JsonParser parser = utf8 ? jsonFactory.createParser(in) : jsonFactory.createParser(new InputStreamReader(in, fileEncoding))) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected a top-level JSON array in " + path);
+            }
+            // an error which left the parser inside an element
+            final IOException[] parserError = new IOException[1];
+            long count = 0;
+            for (JsonToken token; (token = parser.nextToken()) != JsonToken.END_ARRAY;) {
+                if (token == null) {
+                    throw new JsonParseException(parser, "Unexpected end of JSON array in " + path);
+                }
+                count++;
+                final JsonToken current = token;
+                final long offset = recordStats != null ? getOffset(parser.currentTokenLocation()) : 0;
+                sink.accept(paramMap, path, count, RecordLoader.eager(() -> {
+                    try {
+                        if (current == JsonToken.START_OBJECT) {
+                            return recordParser.parse(parser);
+                        }
+                        parser.skipChildren();
+                    } catch (final IOException e) {
+                        parserError[0] = e;
+                        throw e;
+                    }
+                    // the element has been skipped as a whole, so the next element can still be read
+                    throw new JsonParseException(parser, "Expected a JSON object, but found " + current);
+                }));
+                if (parserError[0] != null) {
+                    // tokens left in the element would be read as elements, so the rest of the file is not read
+                    throw parserError[0];
+                }
+                if (recordStats != null) {
+                    // the element has been parsed while the record was processed
+                    recordStats.addBytes(getOffset(parser.currentLocation()) - offset);
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return The offset in bytes, or in characters if the parser reads characters.
+     */
+    private static long getOffset(final JsonLocation location) {
+        final long offset = location.getByteOffset();
+        return offset >= 0 ? offset : Math.max(location.getCharOffset(), 0);
+    }
+
+    /**
+     * Checks if lines can be passed to the parser as raw bytes.
+     *
+     * @param fileEncoding The file encoding.
+     * @return true if the encoding is UTF-8.
+     */
+    protected static boolean isUtf8(final String fileEncoding) {
+        try {
+            return StandardCharsets.UTF_8.equals(Charset.forName(fileEncoding));
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * Parses a single JSON object into a record map.
+ * Implementations are shared by all files in a crawl and must be thread-safe.
+ */
+public interface JsonRecordParser {
+
+    /**
+     * Returns the factory used to create parsers for this engine.
+     *
+     * @return The JSON factory.
+     */
+    JsonFactory getFactory();
+
+    /**
+     * Reads a JSON object from the parser.
+     * The parser must be positioned at START_OBJECT, or before it.
+     *
+     * @param parser The JSON parser.
+     * @return The record map.
+     * @throws IOException if the input is not a valid JSON object.
+     */
+    Map<String, Object> parse(JsonParser parser) throws IOException;
+
+    /**
+     * Reads the value at the current token of the parser.
+     * When the value is an object or an array, the parser is left at its end token.
+     *
+     * @param parser The JSON parser.
+     * @return The value as a map, list, string, number, boolean or null.
+     * @throws IOException if the input is not a valid JSON value.
+     */
+    Object parseValue(JsonParser parser) throws IOException;
+
+    /**
+     * Reads a JSON object from the string.
+     *
+     * @param value The JSON text.
+     * @return The record map.
+     * @throws IOException if the input is not a valid JSON object.
+     */
+    default Map<String, Object> parse(final String value) throws IOException {
+        try (JsonParser parser = getFactory().createParser(value)) {
+            return parse(parser);
+        }
+    }
+
+    /**
+     * Reads a JSON object from the encoded bytes.
+     *
+     * @param data The buffer.
+     * @param offset The start offset in the buffer.
+     * @param length The number of bytes.
+     * @return The record map.
+     * @throws IOException if the input is not a valid JSON object.
+     */
+    default Map<String, Object> parse(final byte[] data, final int offset, final int length) throws IOException {
+        try (JsonParser parser = getFactory().createParser(data, offset, length)) {
+            return parse(parser);
+        }
+    }
+
+    /**
+     * Reads a JSON object from the remaining bytes of the buffer.
+     * Direct buffers, such as mapped files, are streamed through the parser's input buffer, so their bytes are copied
+     * in chunks, but no array is allocated for each line.
+     *
+     * @param buffer The buffer.
+     * @return The record map.
+     * @throws IOException if the input is not a valid JSON object.
+     */
+    default Map<String, Object> parse(final ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            return parse(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        try (JsonParser parser = getFactory().createParser(new ByteBufferBackedInputStream(buffer))) {
+            return parse(parser);
+        }
+    }
+}
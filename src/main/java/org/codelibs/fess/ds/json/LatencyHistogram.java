@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds. Each power of two is divided into 8 buckets,
+ * so that percentiles are accurate to 12.5% from a nanosecond to hours without configuration.
+ * Values are never removed, so percentiles of an interval are computed from the differences of
+ * {@link #getBucketCounts()} taken at its start and end.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds latencies.
+     *
+     * @param nanos The latency of each value in nanoseconds. Negative values are counted as 0.
+     * @param n The number of values.
+     */
+    public void record(final long nanos, final long n) {
+        if (n <= 0) {
+            return;
+        }
+        final long value = Math.max(nanos, 0);
+        buckets[getIndex(value)].add(n);
+        count.add(n);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the latency at the percentile.
+     *
+     * @param percentile The percentile from 0 to 100.
+     * @return The highest latency of the bucket which contains the percentile, or 0 if nothing is recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        final long maxValue = max.get();
+        long sum = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            sum += buckets[i].sum();
+            if (sum >= rank) {
+                return Math.min(getHighestValue(i), maxValue);
+            }
+        }
+        // values are being added
+        return maxValue;
+    }
+
+    /**
+     * @return The number of values in each bucket.
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the latency at the percentile of bucket counts, such as the differences of two {@link #getBucketCounts()}.
+     *
+     * @param counts The number of values in each bucket.
+     * @param percentile The percentile from 0 to 100.
+     * @return The highest latency of the bucket which contains the percentile, or 0 if there are no values.
+     */
+    public static long getPercentile(final long[] counts, final double percentile) {
+        long total = 0;
+        for (final long n : counts) {
+            total += n;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= rank) {
+                return getHighestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param counts The number of values in each bucket.
+     * @return The highest latency of the highest bucket which has values, or 0 if there are no values.
+     */
+    public static long getMax(final long[] counts) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return getHighestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    static int getIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift & SUB_BUCKET_COUNT - 1);
+    }
+
+    static long getHighestValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only map view of a record over a base map, such as data store params.
+ * A key in the record hides the same key in the base map. Lookups are
+ * resolved against both maps without copying either of them.
+ *
+ * @param <V> The value type.
+ */
+public class LayeredMap<V> extends AbstractMap<String, V> {
+
+    private final Map<String, ? extends V> top;
+
+    private final Map<String, ? extends V> base;
+
+    private Set<Entry<String, V>> entrySet;
+
+    private int size = -1;
+
+    /**
+     * @param top The upper layer, which takes precedence.
+     * @param base The lower layer.
+     */
+    public LayeredMap(final Map<String, ? extends V> top, final Map<String, ? extends V> base) {
+        this.top = top;
+        this.base = base;
+    }
+
+    @Override
+    public V get(final Object key) {
+        if (top.containsKey(key)) {
+            return top.get(key);
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return top.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = top.size();
+            for (final String key : base.keySet()) {
+                if (!top.containsKey(key)) {
+                    count++;
+                }
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return top.isEmpty() && base.isEmpty();
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    return new LayeredIterator();
+                }
+
+                @Override
+                public int size() {
+                    return LayeredMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class LayeredIterator implements Iterator<Entry<String, V>> {
+        private final Iterator<? extends Entry<String, ? extends V>> topIterator = top.entrySet().iterator();
+
+        private final Iterator<? extends Entry<String, ? extends V>> baseIterator = base.entrySet().iterator();
+
+        private Entry<String, V> next;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (topIterator.hasNext()) {
+                final Entry<String, ? extends V> entry = topIterator.next();
+                next = new SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+                return true;
+            }
+            while (baseIterator.hasNext()) {
+                final Entry<String, ? extends V> entry = baseIterator.next();
+                if (!top.containsKey(entry.getKey())) {
+                    next = new SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry<String, V> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Distributes units of work, such as files and ranges of files, among crawlers which share a directory.
+ * A crawler works on a unit after it creates the lease file of the unit exclusively, and the lease is
+ * renewed by touching the file while the crawler is alive. A lease which has not been renewed for the
+ * timeout is taken over by another crawler. When a unit is finished, a done file records the state of
+ * its source, so the unit is not read again until the source changes.
+ * A unit may be read twice if a crawler stalls longer than the timeout, so work must be idempotent.
+ * Expiration compares the modification time of lease files with the local clock, so the timeout must be
+ * much longer than the clock difference between crawlers.
+ */
+public class LeaseCoordinator implements Closeable {
+    private static final Logger logger = LogManager.getLogger(LeaseCoordinator.class);
+
+    private static final String LEASE_SUFFIX = ".lease";
+
+    private static final String DONE_SUFFIX = ".done";
+
+    private final Path directory;
+
+    private final String nodeId;
+
+    private final long timeout;
+
+    private final long configHash;
+
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService renewer;
+
+    /**
+     * @param directory The directory shared by crawlers.
+     * @param nodeId The name of this crawler, which is written to lease files.
+     * @param timeout The time in milliseconds after which a lease which has not been renewed expires.
+     * @param configHash The hash of settings, so that units are read again when settings change.
+     */
+    public LeaseCoordinator(final Path directory, final String nodeId, final long timeout, final long configHash) {
+        this.directory = directory;
+        this.nodeId = nodeId;
+        this.timeout = timeout;
+        this.configHash = configHash;
+    }
+
+    /**
+     * Creates the directory, and starts renewing leases every third of the timeout.
+     *
+     * @throws IOException if the directory cannot be created.
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "JsonLeaseRenewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long interval = getRenewInterval();
+        renewer.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public long getRenewInterval() {
+        return Math.max(timeout / 3, 1L);
+    }
+
+    /**
+     * Takes the lease of the unit if the unit is neither finished nor leased by another crawler.
+     *
+     * @param unit The name of the unit.
+     * @param state The state of the source of the unit, such as its size and last modified time.
+     * @return The lease, or null if the unit is finished or leased by another crawler.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Lease acquire(final String unit, final String state) throws IOException {
+        final String name = Long.toHexString(ContentHashStore.hash(unit));
+        final Path leaseFile = directory.resolve(name + LEASE_SUFFIX);
+        final Path doneFile = directory.resolve(name + DONE_SUFFIX);
+        final String doneState = state + ":" + configHash;
+        if (isDone(doneFile, doneState)) {
+            return null;
+        }
+        final String token = nodeId + " " + UUID.randomUUID();
+        if (!create(leaseFile, token)) {
+            if (!isExpired(leaseFile)) {
+                return null;
+            }
+            // only one crawler can move the expired lease away
+            final Path expiredFile = directory.resolve(name + LEASE_SUFFIX + "." + UUID.randomUUID());
+            try {
+                Files.move(leaseFile, expiredFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final NoSuchFileException | AtomicMoveNotSupportedException e) {
+                return null;
+            }
+            final String expiredToken = read(expiredFile);
+            Files.deleteIfExists(expiredFile);
+            if (!create(leaseFile, token)) {
+                return null;
+            }
+            final int nodeEnd = expiredToken != null ? expiredToken.indexOf(' ') : -1;
+            logger.info("Took over the expired lease of {} from {}", unit, nodeEnd > 0 ? expiredToken.substring(0, nodeEnd) : "unknown");
+        }
+        // another crawler may have finished the unit before the lease was created
+        if (isDone(doneFile, doneState)) {
+            Files.deleteIfExists(leaseFile);
+            return null;
+        }
+        final Lease lease = new Lease(unit, leaseFile, doneFile, token, doneState);
+        leases.add(lease);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Acquired the lease of {}", unit);
+        }
+        return lease;
+    }
+
+    /**
+     * Checks if the unit has been finished by a crawler since its source changed.
+     *
+     * @param unit The name of the unit.
+     * @param state The state of the source of the unit.
+     * @return true if the unit is finished.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean isDone(final String unit, final String state) throws IOException {
+        final String name = Long.toHexString(ContentHashStore.hash(unit));
+        return isDone(directory.resolve(name + DONE_SUFFIX), state + ":" + configHash);
+    }
+
+    private boolean isDone(final Path doneFile, final String doneState) throws IOException {
+        return doneState.equals(read(doneFile));
+    }
+
+    /**
+     * Gives up the lease. If the unit is completed, other crawlers do not read it until its source changes.
+     *
+     * @param lease The lease.
+     * @param completed true if the unit has been read successfully.
+     */
+    public void release(final Lease lease, final boolean completed) {
+        leases.remove(lease);
+        try {
+            if (completed) {
+                final Path tempFile = directory.resolve(lease.doneFile.getFileName() + "." + UUID.randomUUID());
+                Files.writeString(tempFile, lease.doneState);
+                try {
+                    Files.move(tempFile, lease.doneFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, lease.doneFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (lease.token.equals(read(lease.leaseFile))) {
+                Files.deleteIfExists(lease.leaseFile);
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to release the lease of {}", lease.unit, e);
+        }
+    }
+
+    /**
+     * Touches lease files of this crawler. A lease which has been taken over is dropped.
+     */
+    protected void renew() {
+        final FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (final Lease lease : leases) {
+            try {
+                if (!lease.token.equals(read(lease.leaseFile))) {
+                    // the unit is read by both crawlers, which is harmless because the work is idempotent
+                    logger.warn("The lease of {} has been taken over by another crawler.", lease.unit);
+                    leases.remove(lease);
+                    continue;
+                }
+                Files.setLastModifiedTime(lease.leaseFile, now);
+            } catch (final IOException e) {
+                logger.warn("Failed to renew the lease of {}", lease.unit, e);
+            }
+        }
+    }
+
+    private boolean create(final Path leaseFile, final String token) throws IOException {
+        try {
+            Files.writeString(leaseFile, token, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (final FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(final Path leaseFile) throws IOException {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(leaseFile).toMillis() > timeout;
+        } catch (final NoSuchFileException e) {
+            // released just now, so the unit may have been finished
+            return false;
+        }
+    }
+
+    private static String read(final Path file) throws IOException {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops renewing, and gives up leases which have not been released.
+     */
+    @Override
+    public void close() {
+        if (renewer != null) {
+            renewer.shutdownNow();
+        }
+        for (final Lease lease : leases) {
+            release(lease, false);
+        }
+    }
+
+    /**
+     * The right of this crawler to work on a unit.
+     */
+    public static class Lease {
+        private final String unit;
+
+        private final Path leaseFile;
+
+        private final Path doneFile;
+
+        private final String token;
+
+        private final String doneState;
+
+        Lease(final String unit, final Path leaseFile, final Path doneFile, final String token, final String doneState) {
+            this.unit = unit;
+            this.leaseFile = leaseFile;
+            this.doneFile = doneFile;
+            this.token = token;
+            this.doneState = doneState;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+/**
+ * Open addressing hash table of long keys and values, which needs 16 bytes per entry
+ * without boxing. It is not thread-safe.
+ */
+class LongHashMap {
+    private static final long EMPTY = 0L;
+
+    /** Replaces the key 0, which marks an empty slot. */
+    private static final long ZERO_KEY = 0x9e3779b97f4a7c15L;
+
+    private long[] keys = new long[16];
+
+    private long[] values = new long[16];
+
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(final long key) {
+        return keys[indexOf(toInternal(key))] != EMPTY;
+    }
+
+    long get(final long key) {
+        return values[indexOf(toInternal(key))];
+    }
+
+    void put(final long key, final long value) {
+        final long k = toInternal(key);
+        final int index = indexOf(k);
+        if (keys[index] == EMPTY) {
+            keys[index] = k;
+            size++;
+            values[index] = value;
+            if (size * 2 > keys.length) {
+                resize();
+            }
+        } else {
+            values[index] = value;
+        }
+    }
+
+    <E extends Exception> void forEach(final EntryConsumer<E> consumer) throws E {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i] == ZERO_KEY ? 0L : keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Spreads bits of the hash (MurmurHash3 fmix64).
+     *
+     * @param value The hash.
+     * @return The mixed hash.
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static long toInternal(final long key) {
+        return key == EMPTY ? ZERO_KEY : key;
+    }
+
+    private int indexOf(final long key) {
+        final int mask = keys.length - 1;
+        int index = (int) mix(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                final int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer<E extends Exception> {
+        void accept(long key, long value) throws E;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads '\n' terminated lines from a file mapped into memory in windows.
+ * A line which straddles a window boundary is read by remapping the window
+ * at the start of the line. The current line is a slice of the mapped window
+ * and is only valid until the next call of {@link #next()}.
+ */
+public class MappedLineReader implements Closeable {
+    private static final Logger logger = LogManager.getLogger(MappedLineReader.class);
+
+    private static final long MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (final Exception e) {
+            logger.debug("Mapped buffers are released by GC.", e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private long windowSize;
+
+    private MappedByteBuffer window;
+
+    /** The file offset of the window. */
+    private long windowStart;
+
+    /** The file offset of the next unread byte. */
+    private long position;
+
+    private ByteBuffer line;
+
+    public MappedLineReader(final FileChannel channel, final long windowSize) throws IOException {
+        this.channel = channel;
+        size = channel.size();
+        this.windowSize = Math.min(Math.max(windowSize, 1), MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return false if there are no more lines.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean next() throws IOException {
+        if (position >= size) {
+            release();
+            return false;
+        }
+        while (true) {
+            if (window == null || position >= windowStart + window.limit()) {
+                map(position);
+            }
+            final int start = (int) (position - windowStart);
+            final int limit = window.limit();
+            for (int i = start; i < limit; i++) {
+                if (window.get(i) == '\n') {
+                    setLine(start, i);
+                    position = windowStart + i + 1;
+                    return true;
+                }
+            }
+            if (windowStart + limit >= size) {
+                setLine(start, limit);
+                position = size;
+                return true;
+            }
+            if (start == 0) {
+                if (windowSize >= MAX_WINDOW_SIZE) {
+                    throw new IOException("A line at " + position + " exceeds " + MAX_WINDOW_SIZE + " bytes.");
+                }
+                windowSize = Math.min(windowSize * 2, MAX_WINDOW_SIZE);
+            }
+            map(position);
+        }
+    }
+
+    private void setLine(final int start, final int end) {
+        int s = start;
+        // skip UTF-8 BOM
+        if (windowStart + s == 0 && end - s >= 3 && window.get(s) == (byte) 0xEF && window.get(s + 1) == (byte) 0xBB
+                && window.get(s + 2) == (byte) 0xBF) {
+            s += 3;
+        }
+        int e = end;
+        if (e > s && window.get(e - 1) == '\r') {
+            e--;
+        }
+        line = window.slice(s, e - s);
+    }
+
+    private void map(final long offset) throws IOException {
+        release();
+        window = channel.map(MapMode.READ_ONLY, offset, Math.min(windowSize, size - offset));
+        windowStart = offset;
+    }
+
+    /**
+     * Returns the current line.
+     *
+     * @return The line without the line terminator.
+     */
+    public ByteBuffer getLine() {
+        return line;
+    }
+
+    private void release() {
+        if (window != null) {
+            final MappedByteBuffer buffer = window;
+            window = null;
+            line = null;
+            if (INVOKE_CLEANER != null) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } catch (final Exception e) {
+                    logger.debug("Failed to release a mapped buffer.", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
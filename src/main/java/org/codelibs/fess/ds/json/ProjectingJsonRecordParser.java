@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * JsonRecordParser which materializes only the given top-level fields.
+ * Values of other fields are skipped with {@link JsonParser#skipChildren()}.
+ */
+public class ProjectingJsonRecordParser implements JsonRecordParser {
+
+    private final JsonRecordParser recordParser;
+
+    private final Set<String> fields;
+
+    /**
+     * @param recordParser The parser used to read values of included fields.
+     * @param fields The top-level field names to include.
+     */
+    public ProjectingJsonRecordParser(final JsonRecordParser recordParser, final Set<String> fields) {
+        this.recordParser = recordParser;
+        this.fields = fields;
+    }
+
+    @Override
+    public JsonFactory getFactory() {
+        return recordParser.getFactory();
+    }
+
+    @Override
+    public Map<String, Object> parse(final JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == null) {
+            token = parser.nextToken();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object, but found " + token);
+        }
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (String name; (name = parser.nextFieldName()) != null;) {
+            if (parser.nextToken() == null) {
+                throw new JsonParseException(parser, "Unexpected end of input");
+            }
+            if (fields.contains(name)) {
+                map.put(name, recordParser.parseValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Unexpected token " + parser.currentToken());
+        }
+        return map;
+    }
+
+    @Override
+    public Object parseValue(final JsonParser parser) throws IOException {
+        return recordParser.parseValue(parser);
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+}
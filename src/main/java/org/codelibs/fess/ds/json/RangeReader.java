@@ -0,0 +1,345 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Reads newline-aligned byte ranges of UTF-8 JSON Lines files, so that a large file is read by several threads
+ * or by several crawlers. Lines in ranges which are not read are counted, so that records keep their line numbers
+ * in the file.
+ */
+public class RangeReader {
+    private static final Logger logger = LogManager.getLogger(RangeReader.class);
+
+    /** The range is read by another crawler. */
+    public static final long RANGE_SKIPPED = -1L;
+
+    /** The range is leased by another crawler, so it is tried again later. */
+    public static final long RANGE_BUSY = -2L;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final JsonRecordParser recordParser;
+
+    private final RecordStats recordStats;
+
+    private final BooleanSupplier alive;
+
+    /**
+     * Reads a range of a file which is split by {@link RangeReader#readSplit(FileChannel, long, long, RangeHandler)}.
+     */
+    @FunctionalInterface
+    public interface RangeHandler {
+        /**
+         * @param range The index of the range.
+         * @param start The start offset of the range.
+         * @param end The end offset of the range.
+         * @param firstLine The number of lines before the range.
+         * @return The number of lines, {@link RangeReader#RANGE_SKIPPED} or {@link RangeReader#RANGE_BUSY}.
+         * @throws IOException if an I/O error occurs.
+         */
+        long read(long range, long start, long end, long firstLine) throws IOException;
+    }
+
+    /**
+     * @param recordParser The record parser.
+     * @param recordStats The aggregated stats, or null.
+     * @param alive Returns false when the crawler is stopped.
+     */
+    public RangeReader(final JsonRecordParser recordParser, final RecordStats recordStats, final BooleanSupplier alive) {
+        this.recordParser = recordParser;
+        this.recordStats = recordStats;
+        this.alive = alive;
+    }
+
+    /**
+     * Splits the file into newline-aligned byte ranges and processes them concurrently.
+     * Lines in each range are counted first, so that records keep their line numbers in the file.
+     *
+     * @param paramMap The params, which are copied for each range.
+     * @param sink The sink of records.
+     * @param file The file.
+     * @param channel The channel of the file.
+     * @param numOfRanges The number of ranges to split into.
+     * @return The number of records.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long readParallel(final DataStoreParams paramMap, final RecordSink sink, final File file, final FileChannel channel,
+            final int numOfRanges) throws IOException {
+        final long[] boundaries = getRangeBoundaries(channel, numOfRanges);
+        final int numOfBoundaries = boundaries.length - 1;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Splitting {} into {} ranges: {}", file.getAbsolutePath(), numOfBoundaries, Arrays.toString(boundaries));
+        }
+        final ExecutorService executorService = ExecutorUtil.newFixedThreadPool(numOfBoundaries);
+        try {
+            final List<Future<Long>> lineCounts = new ArrayList<>(numOfBoundaries);
+            for (int i = 0; i < numOfBoundaries; i++) {
+                final long start = boundaries[i];
+                final long end = boundaries[i + 1];
+                lineCounts.add(executorService.submit(() -> countLines(channel, start, end)));
+            }
+            final long[] firstLines = new long[numOfBoundaries];
+            for (int i = 1; i < numOfBoundaries; i++) {
+                firstLines[i] = firstLines[i - 1] + lineCounts.get(i - 1).get();
+            }
+
+            final List<Future<Long>> recordCounts = new ArrayList<>(numOfBoundaries);
+            for (int i = 0; i < numOfBoundaries; i++) {
+                final long start = boundaries[i];
+                final long end = boundaries[i + 1];
+                final long firstLine = firstLines[i];
+                final DataStoreParams rangeParamMap = paramMap.newInstance();
+                recordCounts.add(executorService.submit(() -> readRange(rangeParamMap, sink, file, start, end, firstLine)));
+            }
+            long count = 0;
+            for (int i = 0; i < numOfBoundaries; i++) {
+                try {
+                    count += recordCounts.get(i).get();
+                } catch (final ExecutionException e) {
+                    logger.warn("Failed to process {} in range {}-{}", file.getAbsolutePath(), boundaries[i], boundaries[i + 1],
+                            e.getCause());
+                    sink.markIncomplete(file.getAbsolutePath());
+                }
+            }
+            return count;
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to count lines in " + file.getAbsolutePath(), e.getCause());
+        } finally {
+            ExecutorUtil.shutdown(executorService);
+        }
+    }
+
+    /**
+     * Reads ranges of the file which are assigned to this crawler or leased by it.
+     * Ranges start at the first line at or after each multiple of the range size, so the boundaries do not depend on
+     * the size of the file. Lines of other ranges are counted but not parsed, to number lines as a whole file.
+     *
+     * @param channel The channel of the file.
+     * @param rangeSize The size of ranges.
+     * @param retryInterval The time in milliseconds to wait before busy ranges are tried again.
+     * @param handler Reads each range.
+     * @return The number of records.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long readSplit(final FileChannel channel, final long rangeSize, final long retryInterval,
+            final RangeHandler handler) throws IOException {
+        final long size = channel.size();
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // range, start, end and first line of ranges leased by other crawlers
+        final List<long[]> busyRanges = new ArrayList<>();
+        long count = 0;
+        long line = 0;
+        long start = 0;
+        for (long range = 0; start < size && alive.getAsBoolean(); range++) {
+            final long end = Math.min(findLineStart(channel, (range + 1) * rangeSize, buffer), size);
+            // a range is empty if a line is longer than the range size
+            if (end > start) {
+                final long lines = handler.read(range, start, end, line);
+                if (lines >= 0) {
+                    count += lines;
+                    line += lines;
+                } else {
+                    if (lines == RANGE_BUSY) {
+                        busyRanges.add(new long[] { range, start, end, line });
+                    }
+                    line += countLines(channel, start, end);
+                }
+            }
+            start = end;
+        }
+        while (alive.getAsBoolean() && !busyRanges.isEmpty()) {
+            try {
+                Thread.sleep(retryInterval);
+            } catch (final InterruptedException e) {
+                throw new InterruptedRuntimeException(e);
+            }
+            for (final Iterator<long[]> it = busyRanges.iterator(); it.hasNext() && alive.getAsBoolean();) {
+                final long[] busyRange = it.next();
+                final long lines = handler.read(busyRange[0], busyRange[1], busyRange[2], busyRange[3]);
+                if (lines != RANGE_BUSY) {
+                    it.remove();
+                }
+                if (lines >= 0) {
+                    count += lines;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads lines which start in the range.
+     *
+     * @param paramMap The params of the current thread.
+     * @param sink The sink of records.
+     * @param file The file.
+     * @param start The start offset of the range, which is the beginning of a line.
+     * @param end The end offset of the range.
+     * @param firstLine The number of lines before the range.
+     * @return The number of records.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long readRange(final DataStoreParams paramMap, final RecordSink sink, final File file, final long start, final long end,
+            final long firstLine) throws IOException {
+        final String path = file.getAbsolutePath();
+        if (recordStats != null) {
+            recordStats.startReading();
+        }
+        try (FileInputStream fis = new FileInputStream(file)) {
+            fis.getChannel().position(start);
+            final ByteLineReader reader = new ByteLineReader(new RangeInputStream(fis, end - start), READ_BUFFER_SIZE, start == 0);
+            long line = firstLine;
+            long count = 0;
+            while (reader.next()) {
+                if (!alive.getAsBoolean()) {
+                    break;
+                }
+                line++;
+                count++;
+                sink.accept(paramMap, path, line,
+                        RecordLoader.ofBytes(recordParser, reader.getBuffer(), reader.getOffset(), reader.getLength()));
+            }
+            return count;
+        } finally {
+            sink.flush(paramMap);
+        }
+    }
+
+    /**
+     * Returns range boundaries of the file. Every range except the first one starts at the beginning of a line.
+     *
+     * @param channel The file channel.
+     * @param numOfRanges The number of ranges to split into.
+     * @return The start offsets of ranges, followed by the file size.
+     * @throws IOException if an I/O error occurs.
+     */
+    protected long[] getRangeBoundaries(final FileChannel channel, final int numOfRanges) throws IOException {
+        final long size = channel.size();
+        final List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        for (int i = 1; i < numOfRanges; i++) {
+            final long last = boundaries.get(boundaries.size() - 1);
+            final long nominal = size * i / numOfRanges;
+            if (nominal <= last) {
+                continue;
+            }
+            final long lineStart = findLineStart(channel, nominal, buffer);
+            if (lineStart > last && lineStart < size) {
+                boundaries.add(lineStart);
+            }
+        }
+        boundaries.add(size);
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private long findLineStart(final FileChannel channel, final long offset, final ByteBuffer buffer) throws IOException {
+        long position = offset - 1;
+        while (true) {
+            buffer.clear();
+            final int n = channel.read(buffer, position);
+            if (n < 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+    }
+
+    private long countLines(final FileChannel channel, final long start, final long end) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long count = 0;
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            final int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer.get(i) == '\n') {
+                    count++;
+                }
+            }
+            position += n;
+        }
+        return count;
+    }
+
+    /**
+     * InputStream which reads at most the given number of bytes.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(final InputStream in, final long length) {
+            super(in);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * InputStream which reads the underlying stream on a separate thread,
+ * so that an expensive source such as a decompressor runs ahead of the consumer.
+ * Chunks are recycled between the reader and the consumer.
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final Chunk END = new Chunk(0);
+
+    private final InputStream in;
+
+    private final BlockingQueue<Chunk> filledQueue;
+
+    private final BlockingQueue<Chunk> freeQueue;
+
+    private final Thread thread;
+
+    private volatile boolean closed;
+
+    private volatile Throwable error;
+
+    private Chunk current;
+
+    private int position;
+
+    /**
+     * @param in The underlying stream.
+     * @param bufferSize The size of each chunk.
+     * @param bufferCount The number of chunks read ahead.
+     * @param name The name of the reader thread.
+     */
+    public ReadAheadInputStream(final InputStream in, final int bufferSize, final int bufferCount, final String name) {
+        this.in = in;
+        final int count = Math.max(bufferCount, 1);
+        // room for all chunks and END, so the reader never blocks on the sentinel
+        filledQueue = new ArrayBlockingQueue<>(count + 1);
+        freeQueue = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            freeQueue.add(new Chunk(bufferSize));
+        }
+        thread = new Thread(this::fill, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void fill() {
+        try {
+            while (!closed) {
+                final Chunk chunk = freeQueue.take();
+                chunk.length = readFully(chunk.data);
+                if (chunk.length == 0) {
+                    break;
+                }
+                filledQueue.put(chunk);
+            }
+        } catch (final InterruptedException e) {
+            // closed
+        } catch (final Throwable t) {
+            error = t;
+        } finally {
+            filledQueue.offer(END);
+        }
+    }
+
+    private int readFully(final byte[] data) throws IOException {
+        int length = 0;
+        while (length < data.length) {
+            final int n = in.read(data, length, data.length - length);
+            if (n == -1) {
+                break;
+            }
+            length += n;
+        }
+        return length;
+    }
+
+    private boolean fetch() throws IOException {
+        if (current == END) {
+            return false;
+        }
+        if (current != null) {
+            if (position < current.length) {
+                return true;
+            }
+            freeQueue.offer(current);
+        }
+        try {
+            current = filledQueue.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading ahead.");
+        }
+        position = 0;
+        if (current == END) {
+            final Throwable t = error;
+            if (t != null) {
+                throw new IOException("Failed to read ahead.", t);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fetch()) {
+            return -1;
+        }
+        return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fetch()) {
+            return -1;
+        }
+        final int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        if (current == null || current == END) {
+            return 0;
+        }
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        try {
+            // the reader may be inside in.read(...), so wait for it before closing the stream
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] data;
+
+        private int length;
+
+        Chunk(final int size) {
+            data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Loads a record map. A loader may refer to a buffer which is reused by its reader.
+ */
+@FunctionalInterface
+public interface RecordLoader {
+    Map<String, Object> load() throws IOException;
+
+    /**
+     * Returns a loader which does not depend on the reader state, so that it can be loaded on another thread.
+     *
+     * @return The detached loader.
+     */
+    default RecordLoader detach() {
+        return this;
+    }
+
+    /**
+     * @return The size of the record in the source, or 0 if it is unknown.
+     */
+    default long length() {
+        return 0;
+    }
+
+    /**
+     * Returns a loader of a line in a byte array which is reused by its reader.
+     *
+     * @param recordParser The record parser.
+     * @param data The buffer.
+     * @param offset The start offset of the line.
+     * @param length The length of the line.
+     * @return The loader.
+     */
+    static RecordLoader ofBytes(final JsonRecordParser recordParser, final byte[] data, final int offset, final int length) {
+        return new RecordLoader() {
+            @Override
+            public Map<String, Object> load() throws IOException {
+                return recordParser.parse(data, offset, length);
+            }
+
+            @Override
+            public RecordLoader detach() {
+                final byte[] copy = Arrays.copyOfRange(data, offset, offset + length);
+                return () -> recordParser.parse(copy, 0, copy.length);
+            }
+
+            @Override
+            public long length() {
+                return length;
+            }
+        };
+    }
+
+    /**
+     * Returns a loader of a line in a buffer, such as a window of a mapped file.
+     *
+     * @param recordParser The record parser.
+     * @param buffer The buffer whose remaining bytes are the line.
+     * @return The loader.
+     */
+    static RecordLoader ofBuffer(final JsonRecordParser recordParser, final ByteBuffer buffer) {
+        return new RecordLoader() {
+            @Override
+            public Map<String, Object> load() throws IOException {
+                return recordParser.parse(buffer);
+            }
+
+            @Override
+            public RecordLoader detach() {
+                final byte[] copy = new byte[buffer.remaining()];
+                buffer.duplicate().get(copy);
+                return () -> recordParser.parse(copy, 0, copy.length);
+            }
+
+            @Override
+            public long length() {
+                return buffer.remaining();
+            }
+        };
+    }
+
+    /**
+     * Returns a loader of a decoded line.
+     *
+     * @param recordParser The record parser.
+     * @param value The line.
+     * @return The loader.
+     */
+    static RecordLoader ofString(final JsonRecordParser recordParser, final String value) {
+        return new RecordLoader() {
+            @Override
+            public Map<String, Object> load() throws IOException {
+                return recordParser.parse(value);
+            }
+
+            @Override
+            public long length() {
+                // characters, which are close enough to bytes for throughput
+                return value.length();
+            }
+        };
+    }
+
+    /**
+     * Returns a loader which is loaded when it is detached, because the source cannot be read later,
+     * such as an element of a JSON array which is read by a streaming parser.
+     *
+     * @param loader The loader.
+     * @return The loader.
+     */
+    static RecordLoader eager(final RecordLoader loader) {
+        return new RecordLoader() {
+            @Override
+            public Map<String, Object> load() throws IOException {
+                return loader.load();
+            }
+
+            @Override
+            public RecordLoader detach() {
+                try {
+                    final Map<String, Object> source = loader.load();
+                    return () -> source;
+                } catch (final IOException e) {
+                    return () -> {
+                        throw e;
+                    };
+                }
+            }
+        };
+    }
+}
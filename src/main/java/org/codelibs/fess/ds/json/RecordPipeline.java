@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * Two-stage pipeline connected by bounded queues.
+ * Readers submit items to the process stage, and items accepted by the
+ * processor are passed to the store stage. Each stage runs on its own
+ * worker threads, so reading, CPU-bound processing and blocking stores overlap.
+ *
+ * @param <T> The item type.
+ */
+public class RecordPipeline<T> implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(RecordPipeline.class);
+
+    private static final Object END = new Object();
+
+    private final String name;
+
+    private final BlockingQueue<Object> processQueue;
+
+    private final BlockingQueue<Object> storeQueue;
+
+    private final List<Thread> processThreads = new ArrayList<>();
+
+    private final List<Thread> storeThreads = new ArrayList<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong stored = new AtomicLong();
+
+    /** Logs queue depths at the log interval, also while readers are blocked by a full queue, or null. */
+    private final ScheduledExecutorService monitor;
+
+    /**
+     * @param name The name used for threads and logs.
+     * @param numOfProcessThreads The number of process stage workers.
+     * @param numOfStoreThreads The number of store stage workers.
+     * @param queueSize The capacity of each stage queue.
+     * @param logInterval The interval in milliseconds to log queue depths, or 0 not to log them until the pipeline is closed.
+     * @param processorFactory Creates the processor for each process worker. The processor returns false to drop the item.
+     * @param storerFactory Creates the storer for each store worker.
+     */
+    public RecordPipeline(final String name, final int numOfProcessThreads, final int numOfStoreThreads, final int queueSize,
+            final long logInterval, final Supplier<Predicate<T>> processorFactory, final Supplier<Storer<T>> storerFactory) {
+        this.name = name;
+        processQueue = new ArrayBlockingQueue<>(queueSize);
+        storeQueue = new ArrayBlockingQueue<>(queueSize);
+        for (int i = 0; i < numOfProcessThreads; i++) {
+            final Predicate<T> processor = processorFactory.get();
+            processThreads.add(startThread(name + "-process-" + (i + 1), processQueue, item -> {
+                if (processor.test(item)) {
+                    put(storeQueue, item);
+                }
+                processed.incrementAndGet();
+            }, null));
+        }
+        for (int i = 0; i < numOfStoreThreads; i++) {
+            final Storer<T> storer = storerFactory.get();
+            storeThreads.add(startThread(name + "-store-" + (i + 1), storeQueue, item -> {
+                storer.store(item);
+                stored.incrementAndGet();
+            }, storer::finish));
+        }
+        if (logInterval > 0) {
+            monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, name + "-monitor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            monitor.scheduleAtFixedRate(this::logStatus, logInterval, logInterval, TimeUnit.MILLISECONDS);
+        } else {
+            monitor = null;
+        }
+    }
+
+    private Thread startThread(final String threadName, final BlockingQueue<Object> queue, final Consumer<T> consumer,
+            final Runnable finisher) {
+        final Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    final Object item = queue.take();
+                    if (item == END) {
+                        break;
+                    }
+                    try {
+                        @SuppressWarnings("unchecked")
+                        final T value = (T) item;
+                        consumer.accept(value);
+                    } catch (final Throwable t) {
+                        logger.warn("Failed to handle an item in {}", threadName, t);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                logger.debug("Interrupted {}", threadName, e);
+            }
+            if (finisher != null) {
+                try {
+                    finisher.run();
+                } catch (final Throwable t) {
+                    logger.warn("Failed to finish {}", threadName, t);
+                }
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Adds an item to the process stage, blocking while the queue is full.
+     *
+     * @param item The item.
+     */
+    public void submit(final T item) {
+        put(processQueue, item);
+        submitted.incrementAndGet();
+    }
+
+    private void put(final BlockingQueue<Object> queue, final Object item) {
+        try {
+            queue.put(item);
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+    }
+
+    protected void logStatus() {
+        logger.info("[{}] submitted={} processed={} stored={} processQueue={}/{} storeQueue={}/{}", name, submitted.get(), processed.get(),
+                stored.get(), processQueue.size(), processQueue.size() + processQueue.remainingCapacity(), storeQueue.size(),
+                storeQueue.size() + storeQueue.remainingCapacity());
+    }
+
+    /**
+     * Store stage worker.
+     *
+     * @param <T> The item type.
+     */
+    @FunctionalInterface
+    public interface Storer<T> {
+        void store(T item);
+
+        /**
+         * Called on the worker thread after the last item, e.g. to flush buffered items.
+         */
+        default void finish() {
+        }
+    }
+
+    /**
+     * Waits until all submitted items are stored and stops the workers.
+     */
+    @Override
+    public void close() {
+        try {
+            finish(processQueue, processThreads);
+            finish(storeQueue, storeThreads);
+        } finally {
+            if (monitor != null) {
+                monitor.shutdownNow();
+            }
+        }
+        logStatus();
+    }
+
+    private void finish(final BlockingQueue<Object> queue, final List<Thread> threads) {
+        for (int i = 0; i < threads.size(); i++) {
+            put(queue, END);
+        }
+        for (final Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                threads.forEach(Thread::interrupt);
+                throw new InterruptedRuntimeException(e);
+            }
+        }
+    }
+}
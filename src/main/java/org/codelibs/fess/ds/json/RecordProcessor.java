@@ -0,0 +1,571 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.Constants;
+import org.codelibs.fess.app.service.FailureUrlService;
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.es.config.exentity.DataConfig;
+import org.codelibs.fess.helper.CrawlerStatsHelper;
+import org.codelibs.fess.helper.CrawlerStatsHelper.StatsAction;
+import org.codelibs.fess.helper.CrawlerStatsHelper.StatsKeyObject;
+import org.codelibs.fess.util.ComponentUtil;
+
+/**
+ * Turns records into documents and stores them: parses each record, skips unchanged ones, evaluates scripts,
+ * and passes the result to the callback. Records are stored on the reader thread, in batches of the reader thread,
+ * on virtual threads, or through a pipeline, depending on the settings.
+ */
+public class RecordProcessor implements RecordSink {
+    private static final Logger logger = LogManager.getLogger(RecordProcessor.class);
+
+    public static final String STATS_ACTION_UNCHANGED = "unchanged";
+
+    private final DataConfig dataConfig;
+
+    private final IndexUpdateCallback callback;
+
+    private final CompiledScriptMap scripts;
+
+    private final Map<String, Object> defaultDataMap;
+
+    private int batchSize = 1;
+
+    private long batchBytes;
+
+    private ContentHashStore contentHashStore;
+
+    private String hashKeyField;
+
+    private RecordTracker recordTracker;
+
+    private RecordStats recordStats;
+
+    private StatsKeyObject unsampledStatsKey;
+
+    private StoreDispatcher<DataStoreParams> storeDispatcher;
+
+    private RecordPipeline<RecordTask> pipeline;
+
+    private final ThreadLocal<StoreBatch> storeBatch = ThreadLocal.withInitial(StoreBatch::new);
+
+    /** Sources which have parsed records that failed to be stored. */
+    private final Set<String> failedSources = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param dataConfig The data config.
+     * @param callback The callback which stores documents.
+     * @param scripts The scripts which map records to documents.
+     * @param defaultDataMap The default fields of documents.
+     */
+    public RecordProcessor(final DataConfig dataConfig, final IndexUpdateCallback callback, final CompiledScriptMap scripts,
+            final Map<String, Object> defaultDataMap) {
+        this.dataConfig = dataConfig;
+        this.callback = callback;
+        this.scripts = scripts;
+        this.defaultDataMap = defaultDataMap;
+    }
+
+    /**
+     * Stores records in batches of each thread, and commits the callback after each batch. This requires a single thread
+     * to store records, because the callback buffers documents of all threads.
+     *
+     * @param batchSize The maximum number of records in a batch.
+     * @param batchBytes The maximum estimated size of a batch in bytes.
+     */
+    public void setBatch(final int batchSize, final long batchBytes) {
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+    }
+
+    /**
+     * Skips records which have not changed since the previous crawl.
+     *
+     * @param contentHashStore The store of record hashes.
+     * @param hashKeyField The field which identifies a record, or null to identify records by their positions.
+     */
+    public void setContentHashStore(final ContentHashStore contentHashStore, final String hashKeyField) {
+        this.contentHashStore = contentHashStore;
+        this.hashKeyField = hashKeyField;
+    }
+
+    public void setRecordTracker(final RecordTracker recordTracker) {
+        this.recordTracker = recordTracker;
+    }
+
+    /**
+     * Aggregates stats of records, and records per-record crawler stats only for sampled records.
+     *
+     * @param recordStats The aggregated stats.
+     * @param unsampledStatsKey The stats key passed to the callback for records which are not sampled.
+     */
+    public void setRecordStats(final RecordStats recordStats, final StatsKeyObject unsampledStatsKey) {
+        this.recordStats = recordStats;
+        this.unsampledStatsKey = unsampledStatsKey;
+    }
+
+    public void setStoreDispatcher(final StoreDispatcher<DataStoreParams> storeDispatcher) {
+        this.storeDispatcher = storeDispatcher;
+    }
+
+    public boolean hasStoreDispatcher() {
+        return storeDispatcher != null;
+    }
+
+    /**
+     * Starts a pipeline which parses and evaluates records on process threads
+     * and stores them on store threads. Each worker has its own params.
+     *
+     * @param name The name used for threads and logs.
+     * @param processThreads The number of process threads.
+     * @param storeThreads The number of store threads.
+     * @param queueSize The capacity of each stage queue.
+     * @param logInterval The interval in milliseconds to log queue depths.
+     * @param paramMap The params which are copied for each worker.
+     */
+    public void startPipeline(final String name, final int processThreads, final int storeThreads, final int queueSize,
+            final long logInterval, final DataStoreParams paramMap) {
+        pipeline = new RecordPipeline<>(name, processThreads, storeThreads, queueSize, logInterval, () -> {
+            final DataStoreParams workerParamMap = paramMap.newInstance();
+            return task -> prepareRecord(workerParamMap, task);
+        }, () -> {
+            final DataStoreParams workerParamMap = paramMap.newInstance();
+            return new RecordPipeline.Storer<RecordTask>() {
+                @Override
+                public void store(final RecordTask task) {
+                    dispatchStore(workerParamMap, task);
+                }
+
+                @Override
+                public void finish() {
+                    RecordProcessor.this.finish(workerParamMap);
+                }
+            };
+        });
+    }
+
+    /**
+     * Waits until all records are stored.
+     */
+    public void close() {
+        try {
+            if (pipeline != null) {
+                pipeline.close();
+            }
+        } finally {
+            if (storeDispatcher != null) {
+                storeDispatcher.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean isSynchronous() {
+        return pipeline == null && storeDispatcher == null;
+    }
+
+    @Override
+    public boolean hasFailure(final String source) {
+        return failedSources.contains(source);
+    }
+
+    @Override
+    public void markIncomplete(final String source) {
+        if (contentHashStore != null) {
+            contentHashStore.markIncomplete(source);
+        }
+        if (recordTracker != null) {
+            recordTracker.markIncomplete(source);
+        }
+    }
+
+    @Override
+    public void accept(final DataStoreParams paramMap, final String path, final long line, final RecordLoader loader) {
+        accept(paramMap, path, 0L, line, loader);
+    }
+
+    @Override
+    public void accept(final DataStoreParams paramMap, final String path, final long generation, final long line,
+            final RecordLoader loader) {
+        if (recordStats == null) {
+            processRecord(paramMap, new RecordTask(path, generation, line, loader, true));
+            return;
+        }
+        recordStats.recordRead(loader.length());
+        try {
+            processRecord(paramMap, new RecordTask(path, generation, line, loader, recordStats.sample()));
+            if (recordStats.isSummaryDue()) {
+                logger.info("Record stats: {}", recordStats.summarize());
+            }
+        } finally {
+            // the time until the next record is reading
+            recordStats.startReading();
+        }
+    }
+
+    private void processRecord(final DataStoreParams paramMap, final RecordTask task) {
+        if (pipeline != null) {
+            task.loader = task.loader.detach();
+            pipeline.submit(task);
+            return;
+        }
+        if (prepareRecord(paramMap, task)) {
+            dispatchStore(paramMap, task);
+        }
+    }
+
+    /**
+     * Stores the record on the current thread, or on a virtual thread when storeMode is virtual.
+     * When batchSize is greater than 1, the record is added to the batch of the current thread instead.
+     */
+    private void dispatchStore(final DataStoreParams paramMap, final RecordTask task) {
+        if (batchSize > 1) {
+            final StoreBatch batch = storeBatch.get();
+            batch.tasks.add(task);
+            batch.bytes += estimateSize(task.dataMap);
+            if (batch.tasks.size() >= batchSize || batch.bytes >= batchBytes) {
+                flush(paramMap);
+            }
+        } else if (storeDispatcher == null) {
+            storeRecord(paramMap, task);
+        } else {
+            storeDispatcher.dispatch(storeParamMap -> storeRecord(storeParamMap, task));
+        }
+    }
+
+    /**
+     * Parses the record and evaluates scripts.
+     *
+     * @return true if the record is ready to be stored.
+     */
+    private boolean prepareRecord(final DataStoreParams paramMap, final RecordTask task) {
+        final CrawlerStatsHelper crawlerStatsHelper = getCrawlerStatsHelper();
+        paramMap.put(Constants.CRAWLER_STATS_KEY, getStatsKey(task));
+        final Map<String, Object> dataMap = new HashMap<>(defaultDataMap);
+        task.dataMap = dataMap;
+        try {
+            long time = recordStats != null ? System.nanoTime() : 0;
+            if (task.sampled) {
+                crawlerStatsHelper.begin(task.getStatsKey());
+            }
+            final Map<String, Object> source = task.loader.load();
+            task.loader = null;
+            if (contentHashStore != null && isUnchanged(task, source)) {
+                if (recordTracker != null) {
+                    recordTracker.seen(task.keyHash);
+                }
+                if (recordStats != null) {
+                    recordStats.record(STATS_ACTION_UNCHANGED, 1, System.nanoTime() - time);
+                }
+                if (task.sampled) {
+                    crawlerStatsHelper.record(task.getStatsKey(), STATS_ACTION_UNCHANGED);
+                    crawlerStatsHelper.done(task.getStatsKey());
+                }
+                return false;
+            }
+            // record fields over params, without copying params for each record
+            final Map<String, Object> resultMap = new LayeredMap<>(source, paramMap.asMap());
+
+            if (recordStats != null) {
+                final long now = System.nanoTime();
+                recordStats.record(StatsAction.PREPARED.name(), 1, now - time);
+                time = now;
+            }
+            if (task.sampled) {
+                crawlerStatsHelper.record(task.getStatsKey(), StatsAction.PREPARED);
+            }
+
+            scripts.evaluate(resultMap, dataMap);
+
+            if (recordStats != null) {
+                recordStats.record(StatsAction.EVALUATED.name(), 1, System.nanoTime() - time);
+            }
+            if (task.sampled) {
+                crawlerStatsHelper.record(task.getStatsKey(), StatsAction.EVALUATED);
+                if (dataMap.get("url") instanceof final String statsUrl) {
+                    task.getStatsKey().setUrl(statsUrl);
+                }
+            }
+            return true;
+        } catch (final Throwable t) {
+            handleFailure(task, t);
+            crawlerStatsHelper.done(task.getStatsKey());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the stats key which is passed to the callback. Records without per-record stats share a key
+     * which has not begun, so that stats recorded by the callback are ignored.
+     */
+    private StatsKeyObject getStatsKey(final RecordTask task) {
+        return task.sampled ? task.getStatsKey() : unsampledStatsKey;
+    }
+
+    /**
+     * Hashes the record and checks it against the previous crawl.
+     * The key is the hashKeyField value, or the stats id if the field is not set.
+     */
+    private boolean isUnchanged(final RecordTask task, final Map<String, Object> source) {
+        final Object key = hashKeyField != null ? source.get(hashKeyField) : null;
+        task.keyHash = ContentHashStore.hash(key != null ? key.toString() : task.getStatsId());
+        task.contentHash = ContentHashStore.hash(source);
+        return contentHashStore.isUnchanged(getSource(task.path), task.keyHash, task.contentHash);
+    }
+
+    private void recordStored(final RecordTask task) {
+        if (task.sampled) {
+            getCrawlerStatsHelper().record(task.getStatsKey(), StatsAction.FINISHED);
+        }
+        if (contentHashStore != null) {
+            contentHashStore.put(getSource(task.path), task.keyHash, task.contentHash);
+        }
+        if (recordTracker != null && task.dataMap.get("url") instanceof final String url) {
+            final long keyHash = contentHashStore != null ? task.keyHash : ContentHashStore.hash(url);
+            recordTracker.stored(getSource(task.path), keyHash, url);
+        }
+    }
+
+    /**
+     * Stores the batch of the current thread.
+     */
+    @Override
+    public void flush(final DataStoreParams paramMap) {
+        if (batchSize <= 1) {
+            return;
+        }
+        final StoreBatch batch = storeBatch.get();
+        if (batch.tasks.isEmpty()) {
+            return;
+        }
+        final List<RecordTask> tasks = batch.tasks;
+        batch.tasks = new ArrayList<>(batchSize);
+        batch.bytes = 0;
+        if (storeDispatcher == null) {
+            storeRecords(paramMap, tasks);
+        } else {
+            storeDispatcher.dispatch(storeParamMap -> storeRecords(storeParamMap, tasks));
+        }
+    }
+
+    /**
+     * Stores the batch of the current thread, and drops the batch because the thread does not read any more.
+     *
+     * @param paramMap The params of the current thread.
+     */
+    public void finish(final DataStoreParams paramMap) {
+        try {
+            flush(paramMap);
+        } finally {
+            storeBatch.remove();
+        }
+    }
+
+    /**
+     * Stores records of a batch. A failed record is reported on its own and does not affect the others.
+     * The batch ends with commit, and a commit failure is reported for every stored record.
+     */
+    private void storeRecords(final DataStoreParams paramMap, final List<RecordTask> tasks) {
+        final CrawlerStatsHelper crawlerStatsHelper = getCrawlerStatsHelper();
+        final long startTime = recordStats != null ? System.nanoTime() : 0;
+        try {
+            final List<RecordTask> storedTasks = new ArrayList<>(tasks.size());
+            for (final RecordTask task : tasks) {
+                try {
+                    paramMap.put(Constants.CRAWLER_STATS_KEY, getStatsKey(task));
+                    callback.store(paramMap, task.dataMap);
+                    storedTasks.add(task);
+                } catch (final Throwable t) {
+                    handleFailure(task, t);
+                }
+            }
+            if (!storedTasks.isEmpty()) {
+                try {
+                    callback.commit();
+                } catch (final Throwable t) {
+                    storedTasks.forEach(task -> handleFailure(task, t));
+                    return;
+                }
+            }
+            storedTasks.forEach(this::recordStored);
+            if (recordStats != null) {
+                // the time of a batch is shared by its records
+                recordStats.record(StatsAction.FINISHED.name(), storedTasks.size(), System.nanoTime() - startTime);
+            }
+        } finally {
+            for (final RecordTask task : tasks) {
+                if (task.sampled) {
+                    crawlerStatsHelper.done(task.getStatsKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the size of a value in bytes, counting 2 bytes per character.
+     *
+     * @param value The value.
+     * @return The estimated size.
+     */
+    protected long estimateSize(final Object value) {
+        if (value instanceof final CharSequence text) {
+            return text.length() * 2L;
+        }
+        if (value instanceof final Map<?, ?> map) {
+            long size = 0;
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof final Collection<?> collection) {
+            long size = 0;
+            for (final Object item : collection) {
+                size += estimateSize(item);
+            }
+            return size;
+        }
+        return value == null ? 0 : 8;
+    }
+
+    private void storeRecord(final DataStoreParams paramMap, final RecordTask task) {
+        final long startTime = recordStats != null ? System.nanoTime() : 0;
+        try {
+            paramMap.put(Constants.CRAWLER_STATS_KEY, getStatsKey(task));
+            callback.store(paramMap, task.dataMap);
+            recordStored(task);
+            if (recordStats != null) {
+                recordStats.record(StatsAction.FINISHED.name(), 1, System.nanoTime() - startTime);
+            }
+        } catch (final Throwable t) {
+            handleFailure(task, t);
+        } finally {
+            if (task.sampled) {
+                getCrawlerStatsHelper().done(task.getStatsKey());
+            }
+        }
+    }
+
+    private void handleFailure(final RecordTask task, final Throwable t) {
+        logger.warn("Crawling Access Exception at : {}", task.dataMap, t);
+        storeFailureUrl(task.getStatsId(), t);
+        final CrawlerStatsHelper crawlerStatsHelper = getCrawlerStatsHelper();
+        if (!task.sampled) {
+            // failing records always have per-record stats, which are done by the caller
+            task.sampled = true;
+            crawlerStatsHelper.begin(task.getStatsKey());
+        }
+        crawlerStatsHelper.record(task.getStatsKey(), StatsAction.EXCEPTION);
+        if (recordStats != null) {
+            recordStats.record(StatsAction.EXCEPTION.name(), 1, 0);
+        }
+        if (task.loader == null) {
+            // the record was parsed, so it still exists in the source and nothing in the file is deleted
+            markIncomplete(getSource(task.path));
+            failedSources.add(getSource(task.path));
+        }
+    }
+
+    protected CrawlerStatsHelper getCrawlerStatsHelper() {
+        return ComponentUtil.getCrawlerStatsHelper();
+    }
+
+    /**
+     * Records the failure of a record, so that it is shown as a failure URL.
+     *
+     * @param url The id of the record, which is path@line.
+     * @param t The cause.
+     */
+    protected void storeFailureUrl(final String url, final Throwable t) {
+        final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
+        failureUrlService.store(dataConfig, t.getClass().getCanonicalName(), url, t);
+    }
+
+    /**
+     * Returns the source file of a record from its path, which is path or archive!/member.
+     */
+    private static String getSource(final String path) {
+        final int memberIndex = path.indexOf("!/");
+        return memberIndex >= 0 ? path.substring(0, memberIndex) : path;
+    }
+
+    /**
+     * Records waiting to be stored by the thread which owns the batch.
+     */
+    private static class StoreBatch {
+        private List<RecordTask> tasks = new ArrayList<>();
+
+        private long bytes;
+    }
+
+    /**
+     * A record passed through the process and store stages.
+     */
+    private static class RecordTask {
+        private final String path;
+
+        private final long generation;
+
+        private final long line;
+
+        /** true if the record has per-record crawler stats. */
+        private boolean sampled;
+
+        private StatsKeyObject statsKey;
+
+        private RecordLoader loader;
+
+        private Map<String, Object> dataMap;
+
+        private long keyHash;
+
+        private long contentHash;
+
+        RecordTask(final String path, final long generation, final long line, final RecordLoader loader, final boolean sampled) {
+            this.path = path;
+            this.generation = generation;
+            this.line = line;
+            this.loader = loader;
+            this.sampled = sampled;
+        }
+
+        /**
+         * @return The id of the record, such as "/path/to/file.jsonl@10", or "/path/to/file.jsonl#2@10" for a line written
+         *         after the file has been rotated or truncated twice.
+         */
+        String getStatsId() {
+            return generation > 0 ? path + "#" + generation + "@" + line : path + "@" + line;
+        }
+
+        StatsKeyObject getStatsKey() {
+            if (statsKey == null) {
+                statsKey = new StatsKeyObject(getStatsId());
+            }
+            return statsKey;
+        }
+    }
+}
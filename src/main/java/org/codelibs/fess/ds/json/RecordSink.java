@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Receives records from readers. Readers call it on their own threads, and each thread passes its own params.
+ */
+public interface RecordSink {
+    /**
+     * Processes a record. The loader may be valid only until this method returns.
+     *
+     * @param paramMap The params of the current thread.
+     * @param path The path of the source, such as "/path/to/file.jsonl" or "/path/to/archive.zip!/member.jsonl".
+     * @param line The line number of the record, or its index in a JSON array, starting at 1.
+     * @param loader The loader of the record.
+     */
+    void accept(DataStoreParams paramMap, String path, long line, RecordLoader loader);
+
+    /**
+     * Processes a record of a followed file, whose line numbers start again at 1 when it is rotated or truncated.
+     * Sinks which do not name records by their lines may ignore the generation.
+     *
+     * @param paramMap The params of the current thread.
+     * @param path The path of the source.
+     * @param generation The number of rotations and truncations of the file before the record was written.
+     * @param line The line number of the record in the generation, starting at 1.
+     * @param loader The loader of the record.
+     */
+    default void accept(final DataStoreParams paramMap, final String path, final long generation, final long line,
+            final RecordLoader loader) {
+        accept(paramMap, path, line, loader);
+    }
+
+    /**
+     * Stores records which the current thread holds back for a batch.
+     *
+     * @param paramMap The params of the current thread.
+     */
+    void flush(DataStoreParams paramMap);
+
+    /**
+     * Records that some records of the source file have not been read, so they are not deleted as removed ones.
+     *
+     * @param source The absolute path of the source file.
+     */
+    void markIncomplete(String source);
+
+    /**
+     * Checks if a parsed record of the source has failed to be stored. Records which cannot be parsed are not counted,
+     * because reading them again does not help. If this sink is not synchronous, records may still be waiting to be stored.
+     *
+     * @param source The absolute path of the source file.
+     * @return true if a record has failed.
+     */
+    boolean hasFailure(String source);
+
+    /**
+     * @return true if records are stored when {@link #flush(DataStoreParams)} returns, so that a checkpoint taken after it
+     *         covers them.
+     */
+    boolean isSynchronous();
+}
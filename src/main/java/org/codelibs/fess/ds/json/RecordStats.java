@@ -0,0 +1,271 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts records and sums elapsed time per stats action for a whole crawl, so that most records
+ * do not need per-record crawler stats. Counters are {@link LongAdder}s, so threads which update
+ * the same action do not contend. Latencies of each action are kept in a {@link LatencyHistogram}.
+ *
+ * <p>Reading is counted as the {@link #READ} action, which is the time from the end of the previous
+ * record, or from {@link #startReading()}, to the next record on the same thread.</p>
+ */
+public class RecordStats {
+    /** The action of reading a record from the source. */
+    public static final String READ = "read";
+
+    private final double sampleRate;
+
+    private final long summaryInterval;
+
+    private final Map<String, Counter> counters;
+
+    private final LongAdder sampled = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final ThreadLocal<long[]> readStartTime = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final long startTime = System.nanoTime();
+
+    private final AtomicLong nextSummaryTime;
+
+    private long lastSummaryTime = startTime;
+
+    private long lastSummaryRecords;
+
+    private long lastSummaryBytes;
+
+    /**
+     * @param sampleRate The ratio of records which also have per-record stats, from 0 to 1.
+     * @param summaryInterval The interval of summaries in milliseconds.
+     * @param actions The names of actions after {@link #READ} in the order of the summary. Other actions are ignored.
+     */
+    public RecordStats(final double sampleRate, final long summaryInterval, final String... actions) {
+        this.sampleRate = sampleRate;
+        this.summaryInterval = TimeUnit.MILLISECONDS.toNanos(summaryInterval);
+        nextSummaryTime = new AtomicLong(startTime + this.summaryInterval);
+        final Map<String, Counter> map = new LinkedHashMap<>();
+        map.put(READ, new Counter());
+        for (final String action : actions) {
+            map.put(action, new Counter());
+        }
+        counters = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Decides if a record has per-record stats.
+     *
+     * @return true if the record is sampled.
+     */
+    public boolean sample() {
+        if (sampleRate <= 0 || sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return false;
+        }
+        sampled.increment();
+        return true;
+    }
+
+    /**
+     * Adds records to the action.
+     *
+     * @param action The name of the action.
+     * @param count The number of records.
+     * @param nanos The time spent for the records in nanoseconds.
+     */
+    public void record(final String action, final long count, final long nanos) {
+        final Counter counter = counters.get(action);
+        if (counter != null) {
+            counter.count.add(count);
+            counter.nanos.add(nanos);
+            if (count > 0) {
+                // records of a batch share its time
+                counter.histogram.record(nanos / count, count);
+            }
+        }
+    }
+
+    /**
+     * Starts reading on the current thread, such as when a file is opened.
+     */
+    public void startReading() {
+        readStartTime.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * Adds a record which has been read on the current thread since the previous record or {@link #startReading()}.
+     * {@link #startReading()} must be called again when the record has been processed.
+     *
+     * @param length The size of the record in bytes, or 0 if it is unknown.
+     */
+    public void recordRead(final long length) {
+        record(READ, 1, System.nanoTime() - readStartTime.get()[0]);
+        bytes.add(length);
+    }
+
+    /**
+     * Adds bytes which have been read without {@link #recordRead(long)}.
+     *
+     * @param length The size in bytes.
+     */
+    public void addBytes(final long length) {
+        bytes.add(length);
+    }
+
+    public long getCount(final String action) {
+        final Counter counter = counters.get(action);
+        return counter != null ? counter.count.sum() : 0;
+    }
+
+    public long getNanos(final String action) {
+        final Counter counter = counters.get(action);
+        return counter != null ? counter.nanos.sum() : 0;
+    }
+
+    public long getSampledCount() {
+        return sampled.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return The histogram of the action, or null if the action is not counted.
+     */
+    public LatencyHistogram getHistogram(final String action) {
+        final Counter counter = counters.get(action);
+        return counter != null ? counter.histogram : null;
+    }
+
+    /**
+     * Checks if the summary interval has passed. Only one of threads calling this method at the same time gets true.
+     *
+     * @return true if the summary should be logged.
+     */
+    public boolean isSummaryDue() {
+        final long next = nextSummaryTime.get();
+        final long now = System.nanoTime();
+        return now - next >= 0 && nextSummaryTime.compareAndSet(next, now + summaryInterval);
+    }
+
+    /**
+     * Returns the summary since the previous summary, and restarts the summary interval. The numbers of records and bytes
+     * are totals of the crawl with rates of the interval, and actions are counted only for the interval.
+     *
+     * @return The summary, such as "records=100(50/s) bytes=10240(5120/s) read=50(1ms p50=1us p99=9us max=20us) ...".
+     */
+    public synchronized String summarize() {
+        final long now = System.nanoTime();
+        final long records = getCount(READ);
+        final long totalBytes = bytes.sum();
+        final long elapsed = now - lastSummaryTime;
+        final StringBuilder buf = new StringBuilder();
+        buf.append("records=").append(records).append('(').append(perSecond(records - lastSummaryRecords, elapsed)).append("/s) bytes=")
+                .append(totalBytes).append('(').append(perSecond(totalBytes - lastSummaryBytes, elapsed)).append("/s)");
+        lastSummaryTime = now;
+        lastSummaryRecords = records;
+        lastSummaryBytes = totalBytes;
+        nextSummaryTime.set(now + summaryInterval);
+        for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+            final Counter counter = entry.getValue();
+            final long count = counter.count.sum();
+            final long nanos = counter.nanos.sum();
+            final long[] bucketCounts = counter.histogram.getBucketCounts();
+            final long[] intervalCounts = new long[bucketCounts.length];
+            for (int i = 0; i < bucketCounts.length; i++) {
+                intervalCounts[i] = bucketCounts[i] - counter.lastBucketCounts[i];
+            }
+            final long maxValue = counter.histogram.getMax();
+            appendAction(buf, entry.getKey(), count - counter.lastCount, nanos - counter.lastNanos,
+                    Math.min(LatencyHistogram.getPercentile(intervalCounts, 50), maxValue),
+                    Math.min(LatencyHistogram.getPercentile(intervalCounts, 99), maxValue),
+                    Math.min(LatencyHistogram.getMax(intervalCounts), maxValue));
+            counter.lastCount = count;
+            counter.lastNanos = nanos;
+            counter.lastBucketCounts = bucketCounts;
+        }
+        return buf.toString();
+    }
+
+    /**
+     * @return The summary of the whole crawl, such as "records=100(50/s) bytes=10240(5120/s) read=100(1ms p50=1us p99=9us max=20us) ...".
+     */
+    @Override
+    public String toString() {
+        final long records = getCount(READ);
+        final long totalBytes = bytes.sum();
+        final long elapsed = System.nanoTime() - startTime;
+        final StringBuilder buf = new StringBuilder();
+        buf.append("records=").append(records).append('(').append(perSecond(records, elapsed)).append("/s) bytes=").append(totalBytes)
+                .append('(').append(perSecond(totalBytes, elapsed)).append("/s)");
+        for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+            final LatencyHistogram histogram = entry.getValue().histogram;
+            appendAction(buf, entry.getKey(), entry.getValue().count.sum(), entry.getValue().nanos.sum(), histogram.getPercentile(50),
+                    histogram.getPercentile(99), histogram.getMax());
+        }
+        return buf.append(" sampled=").append(sampled.sum()).toString();
+    }
+
+    private static void appendAction(final StringBuilder buf, final String action, final long count, final long nanos, final long p50,
+            final long p99, final long max) {
+        buf.append(' ').append(action).append('=').append(count);
+        if (nanos > 0) {
+            buf.append('(').append(formatNanos(nanos)).append(" p50=").append(formatNanos(p50)).append(" p99=").append(formatNanos(p99))
+                    .append(" max=").append(formatNanos(max)).append(')');
+        }
+    }
+
+    private static long perSecond(final long value, final long nanos) {
+        return nanos > 0 ? (long) (value * (double) TimeUnit.SECONDS.toNanos(1) / nanos) : 0;
+    }
+
+    static String formatNanos(final long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(1)) {
+            return nanos + "ns";
+        }
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(1)) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+        }
+        if (nanos < TimeUnit.SECONDS.toNanos(1)) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+        }
+        return TimeUnit.NANOSECONDS.toSeconds(nanos) + "s";
+    }
+
+    private static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder nanos = new LongAdder();
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        /** The count at the previous summary. */
+        private long lastCount;
+
+        private long lastNanos;
+
+        private long[] lastBucketCounts = histogram.getBucketCounts();
+    }
+}
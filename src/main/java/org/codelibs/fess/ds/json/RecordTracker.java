@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tracks URLs of stored records per source file, and finds records which were stored
+ * in the previous crawl but not seen in this crawl.
+ * Entries of this crawl are written to a temporary file as records are stored, so only
+ * 64-bit hashes of seen records are held in memory.
+ */
+public class RecordTracker {
+    private static final Logger logger = LogManager.getLogger(RecordTracker.class);
+
+    private static final int MAGIC = 0x4a535254;
+
+    private static final int VERSION = 1;
+
+    private final Path path;
+
+    private final Path tempFile;
+
+    /** Keys of records which exist in the source but were not stored in this crawl. */
+    private final LongHashMap seenKeys = new LongHashMap();
+
+    /** URLs written in this crawl. */
+    private final LongHashMap storedUrls = new LongHashMap();
+
+    /** Sources which were not fully read, so their records are kept. */
+    private final LongHashMap incompleteSources = new LongHashMap();
+
+    private DataOutputStream out;
+
+    public RecordTracker(final Path path) {
+        this.path = path;
+        tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Starts tracking of this crawl.
+     *
+     * @throws IOException if the temporary file cannot be created.
+     */
+    public synchronized void open() throws IOException {
+        final Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Records a stored record.
+     *
+     * @param source The source file.
+     * @param keyHash The hash of the record key.
+     * @param url The URL of the document.
+     */
+    public synchronized void stored(final String source, final long keyHash, final String url) {
+        final long urlHash = ContentHashStore.hash(url);
+        if (storedUrls.containsKey(urlHash)) {
+            return;
+        }
+        storedUrls.put(urlHash, 0L);
+        try {
+            writeEntry(ContentHashStore.hash(source), keyHash, urlHash, url);
+        } catch (final IOException e) {
+            // the record is kept because its source is treated as incomplete
+            logger.warn("Failed to track {}", url, e);
+            incompleteSources.put(ContentHashStore.hash(source), 0L);
+        }
+    }
+
+    /**
+     * Records a record which exists in the source but was not stored, such as an unchanged record.
+     *
+     * @param keyHash The hash of the record key.
+     */
+    public synchronized void seen(final long keyHash) {
+        seenKeys.put(keyHash, 0L);
+    }
+
+    /**
+     * Marks the source as not fully read, so that none of its records are deleted.
+     *
+     * @param source The source file.
+     */
+    public synchronized void markIncomplete(final String source) {
+        incompleteSources.put(ContentHashStore.hash(source), 0L);
+    }
+
+    /**
+     * Compares this crawl with the previous one, and replaces the track file.
+     * Entries of the previous crawl are kept if their records were seen or their sources were not fully read.
+     *
+     * @param deleteEnabled false to keep all entries of the previous crawl, for example when the crawl was stopped.
+     * @param deleter The function which deletes documents of URLs. URLs of a failed deletion are kept.
+     * @param batchSize The number of URLs passed to the deleter at once.
+     * @return The number of deleted URLs.
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized long finish(final boolean deleteEnabled, final Consumer<List<String>> deleter, final int batchSize)
+            throws IOException {
+        long deleted = 0;
+        try {
+            if (Files.exists(path)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                        throw new IOException(path + " is not a record track file.");
+                    }
+                    final List<Entry> deletions = new ArrayList<>(batchSize);
+                    for (Entry entry; (entry = readEntry(in)) != null;) {
+                        if (storedUrls.containsKey(entry.urlHash)) {
+                            continue;
+                        }
+                        storedUrls.put(entry.urlHash, 0L);
+                        if (!deleteEnabled || seenKeys.containsKey(entry.keyHash) || incompleteSources.containsKey(entry.sourceHash)) {
+                            writeEntry(entry.sourceHash, entry.keyHash, entry.urlHash, entry.url);
+                            continue;
+                        }
+                        deletions.add(entry);
+                        if (deletions.size() >= batchSize) {
+                            deleted += delete(deletions, deleter);
+                        }
+                    }
+                    deleted += delete(deletions, deleter);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return deleted;
+    }
+
+    private long delete(final List<Entry> deletions, final Consumer<List<String>> deleter) throws IOException {
+        if (deletions.isEmpty()) {
+            return 0;
+        }
+        final List<String> urls = new ArrayList<>(deletions.size());
+        deletions.forEach(entry -> urls.add(entry.url));
+        try {
+            deleter.accept(urls);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Deleted {}", urls);
+            }
+            return urls.size();
+        } catch (final RuntimeException e) {
+            logger.warn("Failed to delete {} documents. They will be deleted in the next crawl.", urls.size(), e);
+            for (final Entry entry : deletions) {
+                writeEntry(entry.sourceHash, entry.keyHash, entry.urlHash, entry.url);
+            }
+            return 0;
+        } finally {
+            deletions.clear();
+        }
+    }
+
+    private void writeEntry(final long sourceHash, final long keyHash, final long urlHash, final String url) throws IOException {
+        final byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        out.writeLong(sourceHash);
+        out.writeLong(keyHash);
+        out.writeLong(urlHash);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private Entry readEntry(final DataInputStream in) throws IOException {
+        final long sourceHash;
+        try {
+            sourceHash = in.readLong();
+        } catch (final EOFException e) {
+            return null;
+        }
+        final Entry entry = new Entry();
+        entry.sourceHash = sourceHash;
+        entry.keyHash = in.readLong();
+        entry.urlHash = in.readLong();
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        entry.url = new String(bytes, StandardCharsets.UTF_8);
+        return entry;
+    }
+
+    private static class Entry {
+        private long sourceHash;
+
+        private long keyHash;
+
+        private long urlHash;
+
+        private String url;
+    }
+}
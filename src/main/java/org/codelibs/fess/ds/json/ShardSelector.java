@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns files, and ranges of large files, to one of several crawlers which read the same directories.
+ * A file is assigned by a stable hash of its path relative to the configured directory, so every crawler
+ * makes the same decision without coordination even if the directory is mounted at different paths.
+ * When a range size is given, every file is split into ranges at fixed offsets, and the ranges are assigned
+ * in turn starting at the shard of the file, so that ranges of a growing file keep their shard. Whether a file
+ * is split does not depend on its size, because crawlers may list a growing file at different sizes.
+ * A file is skipped if none of its ranges at the time of listing is assigned to this crawler, so ranges which
+ * are appended after that are read in the next crawl.
+ */
+public class ShardSelector {
+    private final int shardCount;
+
+    private final int shardIndex;
+
+    private final long rangeSize;
+
+    /** Keys of files which are split into ranges, by their absolute paths. */
+    private final Map<String, String> splitKeys = new ConcurrentHashMap<>();
+
+    /** Absolute paths of files which are assigned to other crawlers. */
+    private final Set<String> skippedFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param shardCount The number of crawlers.
+     * @param shardIndex The index of this crawler, from 0 to shardCount - 1.
+     * @param rangeSize The size of ranges which large files are split into, or 0 to assign whole files.
+     */
+    public ShardSelector(final int shardCount, final int shardIndex, final long rangeSize) {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Invalid shard " + shardIndex + " of " + shardCount);
+        }
+        this.shardCount = shardCount;
+        this.shardIndex = shardIndex;
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Checks if the file is read by this crawler.
+     *
+     * @param relativePath The path of the file relative to the configured directory.
+     * @param file The file.
+     * @return true if the file, or one of its ranges, is assigned to this crawler.
+     */
+    public boolean select(final Path relativePath, final File file) {
+        return select(relativePath.toString().replace(File.separatorChar, '/'), file);
+    }
+
+    /**
+     * Checks if the file is read by this crawler.
+     *
+     * @param key The stable name of the file, such as the configured path.
+     * @param file The file.
+     * @return true if the file, or one of its ranges, is assigned to this crawler.
+     */
+    public boolean select(final String key, final File file) {
+        final String path = file.getAbsolutePath();
+        // ranges are assigned in turn, so shardCount ranges cover all crawlers
+        final long numOfRanges = rangeSize > 0 ? Math.min(Math.max((file.length() + rangeSize - 1) / rangeSize, 1), shardCount) : 1;
+        for (long range = 0; range < numOfRanges; range++) {
+            if (isAssigned(key, range)) {
+                if (rangeSize > 0) {
+                    splitKeys.put(path, key);
+                }
+                skippedFiles.remove(path);
+                return true;
+            }
+        }
+        splitKeys.remove(path);
+        skippedFiles.add(path);
+        return false;
+    }
+
+    /**
+     * @param file The selected file.
+     * @return true if the file is split into ranges, so this crawler reads only the ranges assigned to it.
+     */
+    public boolean isSplit(final File file) {
+        return splitKeys.containsKey(file.getAbsolutePath());
+    }
+
+    /**
+     * Checks if a range of a split file is assigned to this crawler.
+     * A split file which cannot be read by ranges, such as a compressed file, is read as range 0.
+     *
+     * @param file The split file.
+     * @param range The index of the range.
+     * @return true if the range is assigned to this crawler.
+     */
+    public boolean isAssigned(final File file, final long range) {
+        final String key = splitKeys.get(file.getAbsolutePath());
+        return key == null || isAssigned(key, range);
+    }
+
+    private boolean isAssigned(final String key, final long range) {
+        return Math.floorMod(ContentHashStore.hash(key) + range, (long) shardCount) == shardIndex;
+    }
+
+    public long getRangeSize() {
+        return rangeSize;
+    }
+
+    /**
+     * @return Absolute paths of files which have been assigned to other crawlers.
+     */
+    public Set<String> getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardSelector [shardCount=" + shardCount + ", shardIndex=" + shardIndex + ", rangeSize=" + rangeSize + "]";
+    }
+}
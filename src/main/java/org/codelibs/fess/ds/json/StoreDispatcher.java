@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.exception.InterruptedRuntimeException;
+
+/**
+ * Runs blocking store calls on virtual threads, limiting the number of
+ * in-flight calls with a semaphore. Each running call borrows a resource,
+ * such as its own params, from a pool which is never larger than the limit.
+ * When virtual threads are not supported by the running JVM, such as Java 17,
+ * a fixed pool with a platform thread per permit is used instead.
+ *
+ * @param <R> The type of the per-call resource.
+ */
+public class StoreDispatcher<R> implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(StoreDispatcher.class);
+
+    private static final int DEFAULT_VIRTUAL_CONCURRENCY = 256;
+
+    private final ExecutorService executorService;
+
+    private final Semaphore semaphore;
+
+    private final int maxConcurrency;
+
+    private final Queue<R> resourcePool = new ConcurrentLinkedQueue<>();
+
+    private final Supplier<R> resourceFactory;
+
+    public StoreDispatcher(final int maxConcurrency, final Supplier<R> resourceFactory) {
+        this.maxConcurrency = maxConcurrency;
+        this.resourceFactory = resourceFactory;
+        semaphore = new Semaphore(maxConcurrency);
+        executorService = newExecutorService(maxConcurrency);
+    }
+
+    /**
+     * Returns the default limit of in-flight calls. It is 256 on virtual threads, and the number of processors
+     * when platform threads are used, because each call then holds a platform thread.
+     *
+     * @return The default limit.
+     */
+    public static int getDefaultConcurrency() {
+        return isVirtualThreadAvailable() ? DEFAULT_VIRTUAL_CONCURRENCY : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Checks if the running JVM supports virtual threads, which are a preview feature before Java 21.
+     *
+     * @return true if virtual threads can be created.
+     */
+    public static boolean isVirtualThreadAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an executor which runs each task on a new virtual thread, or a pool of platform threads
+     * if virtual threads are not available. The semaphore keeps tasks from waiting in the pool's queue.
+     *
+     * @param maxConcurrency The limit of in-flight calls, which is the size of the platform thread pool.
+     * @return The executor.
+     */
+    protected ExecutorService newExecutorService(final int maxConcurrency) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final Exception e) {
+            logger.warn("Virtual threads are not available, so {} platform threads are used.", maxConcurrency);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to create a virtual thread executor.", e);
+            }
+            return Executors.newFixedThreadPool(maxConcurrency);
+        }
+    }
+
+    /**
+     * Runs the task on a new thread, blocking while the number of running tasks is at the limit.
+     *
+     * @param task The task which receives a pooled resource.
+     */
+    public void dispatch(final Consumer<R> task) {
+        try {
+            semaphore.acquire();
+        } catch (final InterruptedException e) {
+            throw new InterruptedRuntimeException(e);
+        }
+        try {
+            executorService.execute(() -> {
+                R resource = resourcePool.poll();
+                if (resource == null) {
+                    resource = resourceFactory.get();
+                }
+                try {
+                    task.accept(resource);
+                } catch (final Throwable t) {
+                    logger.warn("Failed to run a store task.", t);
+                } finally {
+                    resourcePool.offer(resource);
+                    semaphore.release();
+                }
+            });
+        } catch (final RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of running tasks.
+     *
+     * @return The number of tasks holding a permit.
+     */
+    public int getActiveCount() {
+        return maxConcurrency - semaphore.availablePermits();
+    }
+
+    /**
+     * Waits until all dispatched tasks finish.
+     */
+    @Override
+    public void close() {
+        try {
+            semaphore.acquire(maxConcurrency);
+            semaphore.release(maxConcurrency);
+            executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            executorService.shutdownNow();
+            throw new InterruptedRuntimeException(e);
+        }
+    }
+}
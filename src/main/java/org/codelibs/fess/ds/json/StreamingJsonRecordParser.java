@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * JsonRecordParser which builds maps and lists directly from JsonParser events.
+ * Values are mapped to the same types as untyped databind.
+ */
+public class StreamingJsonRecordParser implements JsonRecordParser {
+
+    public static final String NAME = "streaming";
+
+    private final JsonFactory jsonFactory;
+
+    public StreamingJsonRecordParser(final JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    @Override
+    public JsonFactory getFactory() {
+        return jsonFactory;
+    }
+
+    @Override
+    public Map<String, Object> parse(final JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == null) {
+            token = parser.nextToken();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object, but found " + token);
+        }
+        return readObject(parser);
+    }
+
+    @Override
+    public Object parseValue(final JsonParser parser) throws IOException {
+        return readValue(parser, parser.currentToken());
+    }
+
+    protected Map<String, Object> readObject(final JsonParser parser) throws IOException {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        for (String name; (name = parser.nextFieldName()) != null;) {
+            map.put(name, readValue(parser, parser.nextToken()));
+        }
+        if (parser.currentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Unexpected token " + parser.currentToken());
+        }
+        return map;
+    }
+
+    protected List<Object> readArray(final JsonParser parser) throws IOException {
+        final List<Object> list = new ArrayList<>();
+        for (JsonToken token; (token = parser.nextToken()) != JsonToken.END_ARRAY;) {
+            list.add(readValue(parser, token));
+        }
+        return list;
+    }
+
+    protected Object readValue(final JsonParser parser, final JsonToken token) throws IOException {
+        if (token == null) {
+            throw new JsonParseException(parser, "Unexpected end of input");
+        }
+        return switch (token) {
+        case START_OBJECT -> readObject(parser);
+        case START_ARRAY -> readArray(parser);
+        case VALUE_STRING -> parser.getText();
+        case VALUE_NUMBER_INT -> parser.getNumberValue();
+        case VALUE_NUMBER_FLOAT -> parser.getDoubleValue();
+        case VALUE_TRUE -> Boolean.TRUE;
+        case VALUE_FALSE -> Boolean.FALSE;
+        case VALUE_NULL -> null;
+        case VALUE_EMBEDDED_OBJECT -> parser.getEmbeddedObject();
+        default -> throw new JsonParseException(parser, "Unexpected token " + token);
+        };
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.dbflute.utflute.core.PlainTestCase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ArchiveReaderTest extends PlainTestCase {
+
+    private Path dir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory("archive");
+    }
+
+    public void test_getArchiveType() {
+        assertEquals("zip", ArchiveReader.getArchiveType("data.zip"));
+        assertEquals("tar", ArchiveReader.getArchiveType("data.tar"));
+        assertEquals("tar", ArchiveReader.getArchiveType("data.TAR.GZ"));
+        assertEquals("tar", ArchiveReader.getArchiveType("data.tgz"));
+        assertEquals("tar", ArchiveReader.getArchiveType("data.tar.bz2"));
+        assertNull(ArchiveReader.getArchiveType("data.tar.zst"));
+        assertNull(ArchiveReader.getArchiveType("data.jsonl.gz"));
+        assertNull(ArchiveReader.getArchiveType("data.jsonl"));
+    }
+
+    public void test_read_zip() throws Exception {
+        final Path zip = createZip();
+        final ListSink sink = new ListSink();
+        assertEquals(4, newReader(1).read(new DataStoreParams(), sink, zip.toFile(), null));
+        final String path = zip.toFile().getAbsolutePath();
+        assertEquals(List.of(path + "!/a.jsonl@1={a=1}", path + "!/a.jsonl@2={a=2}", path + "!/sub/b.jsonl@1={b=1}",
+                path + "!/c.json@1={c=1}"), sink.records);
+    }
+
+    public void test_read_zip_parallel() throws Exception {
+        final Path zip = createZip();
+        final ListSink sink = new ListSink();
+        assertEquals(4, newReader(2).read(new DataStoreParams(), sink, zip.toFile(), null));
+        final String path = zip.toFile().getAbsolutePath();
+        final List<String> records = new ArrayList<>(sink.records);
+        Collections.sort(records);
+        assertEquals(List.of(path + "!/a.jsonl@1={a=1}", path + "!/a.jsonl@2={a=2}", path + "!/c.json@1={c=1}",
+                path + "!/sub/b.jsonl@1={b=1}"), records);
+        // each member is flushed by its own thread
+        assertEquals(3, sink.flushes.get());
+    }
+
+    public void test_read_tar() throws Exception {
+        final Path tar = dir.resolve("data.tar.gz");
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(Files.newOutputStream(tar)))) {
+            putTarEntry(out, "a.jsonl", "{\"a\":1}\n{\"a\":2}\n");
+            putTarEntry(out, "skipped.txt", "text\n");
+            putTarEntry(out, "sub/b.jsonl", "{\"b\":1}\n");
+            putTarEntry(out, "c.json", "[{\"c\":1}]");
+        }
+        final ListSink sink = new ListSink();
+        // members after the first one can be read only if reading a member does not close the archive
+        assertEquals(4, newReader(1).read(new DataStoreParams(), sink, tar.toFile(), null));
+        final String path = tar.toFile().getAbsolutePath();
+        assertEquals(List.of(path + "!/a.jsonl@1={a=1}", path + "!/a.jsonl@2={a=2}", path + "!/sub/b.jsonl@1={b=1}",
+                path + "!/c.json@1={c=1}"), sink.records);
+    }
+
+    private Path createZip() throws IOException {
+        final Path zip = dir.resolve("data.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            putZipEntry(out, "a.jsonl", "{\"a\":1}\n{\"a\":2}\n");
+            putZipEntry(out, "skipped.txt", "text\n");
+            out.putNextEntry(new ZipEntry("sub/"));
+            out.closeEntry();
+            putZipEntry(out, "sub/b.jsonl", "{\"b\":1}\n");
+            putZipEntry(out, "c.json", "[{\"c\":1}]");
+        }
+        return zip;
+    }
+
+    private void putZipEntry(final ZipOutputStream out, final String name, final String value) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(value.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+
+    private void putTarEntry(final TarArchiveOutputStream out, final String name, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        out.putArchiveEntry(entry);
+        out.write(bytes);
+        out.closeArchiveEntry();
+    }
+
+    private JsonFileReader newReader(final int parallelism) {
+        final JsonFileReader reader = new JsonFileReader(new DatabindJsonRecordParser(new ObjectMapper()), "UTF-8", null, () -> true);
+        reader.setArchive(parallelism, name -> name.endsWith(".jsonl") || name.endsWith(".json"));
+        return reader;
+    }
+
+    private static class ListSink implements RecordSink {
+        private final List<String> records = Collections.synchronizedList(new ArrayList<>());
+
+        private final AtomicInteger flushes = new AtomicInteger();
+
+        @Override
+        public void accept(final DataStoreParams paramMap, final String path, final long line, final RecordLoader loader) {
+            try {
+                records.add(path + "@" + line + "=" + loader.load());
+            } catch (final IOException e) {
+                records.add(path + "@" + line + "=error");
+            }
+        }
+
+        @Override
+        public void flush(final DataStoreParams paramMap) {
+            flushes.incrementAndGet();
+        }
+
+        @Override
+        public void markIncomplete(final String source) {
+            // nothing is deleted
+        }
+
+        @Override
+        public boolean hasFailure(final String source) {
+            return false;
+        }
+
+        @Override
+        public boolean isSynchronous() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class ByteLineReaderTest extends PlainTestCase {
+
+    public void test_next() throws Exception {
+        assertEquals(List.of("a", "bb", "", "ccc"), readLines("a\nbb\r\n\nccc", 4));
+        assertEquals(List.of("a", "bb"), readLines("a\nbb\n", 1));
+        assertEquals(List.of("{\"k\":\"\u3042\"}"), readLines("\uFEFF{\"k\":\"\u3042\"}\n", 2));
+        assertEquals(List.of(), readLines("", 8));
+    }
+
+    public void test_longLine() throws Exception {
+        final String line = "x".repeat(1000);
+        assertEquals(List.of(line, "y", line), readLines(line + "\ny\n" + line, 16));
+    }
+
+    public void test_getLineEnd() throws Exception {
+        final ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream("ab\r\ncd\nef".getBytes(StandardCharsets.UTF_8)), 2);
+        assertTrue(reader.next());
+        assertEquals(4L, reader.getLineEnd());
+        assertTrue(reader.isTerminated());
+        assertTrue(reader.next());
+        assertEquals(7L, reader.getLineEnd());
+        assertTrue(reader.isTerminated());
+        assertTrue(reader.next());
+        assertEquals(9L, reader.getLineEnd());
+        assertFalse(reader.isTerminated());
+        assertFalse(reader.next());
+    }
+
+    private List<String> readLines(final String value, final int bufferSize) throws Exception {
+        final ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)), bufferSize);
+        final List<String> list = new ArrayList<>();
+        while (reader.next()) {
+            list.add(new String(reader.getBuffer(), reader.getOffset(), reader.getLength(), StandardCharsets.UTF_8));
+        }
+        return list;
+    }
+}
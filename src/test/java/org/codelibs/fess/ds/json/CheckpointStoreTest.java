@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.codelibs.fess.ds.json.CheckpointStore.Checkpoint;
+import org.dbflute.utflute.core.PlainTestCase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class CheckpointStoreTest extends PlainTestCase {
+
+    public void test_saveAndLoad() throws Exception {
+        final File dir = Files.createTempDirectory("checkpoint").toFile();
+        final File storeFile = new File(dir, "sub/checkpoints.json");
+        final File file = new File(dir, "a.jsonl");
+        Files.writeString(file.toPath(), "{\"id\":1}\n{\"id\":2}\n");
+
+        final CheckpointStore store = new CheckpointStore(storeFile.toPath(), new ObjectMapper());
+        store.load();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            assertNull(store.getResumePoint(file, channel));
+            store.put(file.getAbsolutePath(), store.createCheckpoint(file, channel, 9, 1));
+        }
+        store.save();
+
+        final CheckpointStore loaded = new CheckpointStore(storeFile.toPath(), new ObjectMapper());
+        loaded.load();
+        final Checkpoint checkpoint = loaded.get(file.getAbsolutePath());
+        assertEquals(9L, checkpoint.getOffset());
+        assertEquals(1L, checkpoint.getLines());
+        assertEquals(18L, checkpoint.getSize());
+        assertEquals(store.get(file.getAbsolutePath()).getChecksum(), checkpoint.getChecksum());
+    }
+
+    public void test_revert() throws Exception {
+        final File dir = Files.createTempDirectory("checkpoint").toFile();
+        final File storeFile = new File(dir, "checkpoints.json");
+        final File file1 = new File(dir, "a.jsonl");
+        final File file2 = new File(dir, "b.jsonl");
+        Files.writeString(file1.toPath(), "{\"id\":1}\n{\"id\":2}\n");
+        Files.writeString(file2.toPath(), "{\"id\":1}\n{\"id\":2}\n");
+
+        final CheckpointStore store = new CheckpointStore(storeFile.toPath(), new ObjectMapper());
+        try (FileChannel channel = FileChannel.open(file1.toPath())) {
+            store.put(file1.getAbsolutePath(), store.createCheckpoint(file1, channel, 9, 1));
+        }
+        store.save();
+
+        final CheckpointStore loaded = new CheckpointStore(storeFile.toPath(), new ObjectMapper());
+        loaded.load();
+        try (FileChannel channel = FileChannel.open(file1.toPath())) {
+            loaded.put(file1.getAbsolutePath(), loaded.createCheckpoint(file1, channel, 18, 2));
+        }
+        try (FileChannel channel = FileChannel.open(file2.toPath())) {
+            loaded.put(file2.getAbsolutePath(), loaded.createCheckpoint(file2, channel, 18, 2));
+        }
+        loaded.revert(path -> true);
+        assertEquals(9L, loaded.get(file1.getAbsolutePath()).getOffset());
+        assertNull(loaded.get(file2.getAbsolutePath()));
+    }
+
+    public void test_getResumePoint() throws Exception {
+        final File dir = Files.createTempDirectory("checkpoint").toFile();
+        final File file = new File(dir, "a.jsonl");
+        Files.writeString(file.toPath(), "{\"id\":1}\n");
+
+        final CheckpointStore store = new CheckpointStore(new File(dir, "checkpoints.json").toPath(), new ObjectMapper());
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            store.put(file.getAbsolutePath(), store.createCheckpoint(file, channel, 9, 1));
+        }
+
+        // appended
+        Files.writeString(file.toPath(), "{\"id\":2}\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            assertEquals(9L, store.getResumePoint(file, channel).getOffset());
+        }
+
+        // rewritten in place
+        Files.writeString(file.toPath(), "{\"id\":3}\n{\"id\":2}\n", StandardCharsets.UTF_8, StandardOpenOption.WRITE);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            assertNull(store.getResumePoint(file, channel));
+        }
+
+        // truncated
+        Files.writeString(file.toPath(), "{}\n", StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            assertNull(store.getResumePoint(file, channel));
+        }
+    }
+}
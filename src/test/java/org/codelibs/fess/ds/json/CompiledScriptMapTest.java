@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.fess.script.ScriptEngine;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class CompiledScriptMapTest extends PlainTestCase {
+
+    private final AtomicInteger engineCount = new AtomicInteger();
+
+    private final AtomicInteger lookupCount = new AtomicInteger();
+
+    private final ScriptEngine scriptEngine = new ScriptEngine() {
+        @Override
+        public Object evaluate(final String template, final Map<String, Object> paramMap) {
+            engineCount.incrementAndGet();
+            return "script:" + template;
+        }
+
+        @Override
+        public String getName() {
+            return "groovy";
+        }
+    };
+
+    private ScriptEngine getScriptEngine() {
+        lookupCount.incrementAndGet();
+        return scriptEngine;
+    }
+
+    public void test_evaluate() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("empty", "");
+        scriptMap.put("url", "url");
+        scriptMap.put("title", "data.title");
+        scriptMap.put("missing", "data.missing.value");
+        scriptMap.put("dotted", "a.b");
+        scriptMap.put("list", "items.name");
+        scriptMap.put("root", "Math.PI");
+        scriptMap.put("expr", "url + \"/\" + data.title");
+        final CompiledScriptMap scripts = new CompiledScriptMap(scriptMap, "groovy", this::getScriptEngine);
+
+        final Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("url", "http://example.com");
+        resultMap.put("data", Map.of("title", "Test"));
+        resultMap.put("a.b", "literal key");
+        resultMap.put("items", List.of(Map.of("name", "x")));
+        final Map<String, Object> dataMap = new HashMap<>();
+        scripts.evaluate(resultMap, dataMap);
+
+        assertEquals("", dataMap.get("empty"));
+        assertEquals("http://example.com", dataMap.get("url"));
+        assertEquals("Test", dataMap.get("title"));
+        assertFalse(dataMap.containsKey("missing"));
+        assertEquals("literal key", dataMap.get("dotted"));
+        assertEquals("script:items.name", dataMap.get("list"));
+        assertEquals("script:Math.PI", dataMap.get("root"));
+        assertEquals("script:url + \"/\" + data.title", dataMap.get("expr"));
+        assertEquals(3, engineCount.get());
+
+        scripts.evaluate(resultMap, new HashMap<>());
+        assertEquals(1, lookupCount.get());
+    }
+
+    public void test_getReferencedNames() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("empty", "");
+        scriptMap.put("title", "data.title");
+        scriptMap.put("content", "body + \" \" + summary");
+        assertEquals(Set.of("data.title", "data", "title", "body + \" \" + summary", "body", "summary"),
+                new CompiledScriptMap(scriptMap, "groovy", this::getScriptEngine).getReferencedNames());
+
+        scriptMap.put("dynamic", "binding.getVariable(\"x\")");
+        assertNull(new CompiledScriptMap(scriptMap, "groovy", this::getScriptEngine).getReferencedNames());
+    }
+
+    public void test_jsonPointer() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "/meta/title");
+        scriptMap.put("tag", "/tags/1");
+        scriptMap.put("slash", "/a~1b");
+        scriptMap.put("missing", "/meta/missing/x");
+        scriptMap.put("outOfRange", "/tags/5");
+        scriptMap.put("url", "url");
+        final CompiledScriptMap scripts = new CompiledScriptMap(scriptMap, "groovy", this::getScriptEngine, true);
+
+        final Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("url", "http://example.com");
+        resultMap.put("meta", Map.of("title", "Test"));
+        resultMap.put("tags", List.of("a", "b"));
+        resultMap.put("a/b", "slash");
+        final Map<String, Object> dataMap = new HashMap<>();
+        scripts.evaluate(resultMap, dataMap);
+
+        assertEquals(Map.of("title", "Test", "tag", "b", "slash", "slash", "url", "http://example.com"), dataMap);
+        assertEquals(0, engineCount.get());
+        assertEquals(Set.of("meta", "tags", "a/b", "url"), scripts.getReferencedNames());
+
+        final Map<String, Object> scriptDataMap = new HashMap<>();
+        new CompiledScriptMap(Map.of("title", "/meta/title"), "groovy", this::getScriptEngine).evaluate(resultMap, scriptDataMap);
+        assertEquals("script:/meta/title", scriptDataMap.get("title"));
+    }
+
+    public void test_otherScriptType() {
+        final CompiledScriptMap scripts = new CompiledScriptMap(Map.of("title", "data.title"), "js", this::getScriptEngine);
+        final Map<String, Object> dataMap = new HashMap<>();
+        scripts.evaluate(Map.of("data", Map.of("title", "Test")), dataMap);
+        assertEquals("script:data.title", dataMap.get("title"));
+    }
+
+    public void test_evaluate_sameAsEngine() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("empty", "");
+        scriptMap.put("url", "url");
+        scriptMap.put("title", "data.title");
+        scriptMap.put("deep", "data.meta.author");
+        scriptMap.put("missingChild", "data.missing");
+        scriptMap.put("missingPath", "data.missing.value");
+        scriptMap.put("missingRoot", "unknown.value");
+        scriptMap.put("dotted", "a.b");
+        scriptMap.put("list", "items.name");
+        scriptMap.put("string", "url.length");
+        // an engine which resolves property paths like Groovy, and returns null where Groovy throws
+        final ScriptEngine pathEngine = new ScriptEngine() {
+            @Override
+            public Object evaluate(final String template, final Map<String, Object> paramMap) {
+                Object value = paramMap;
+                for (final String name : template.split("\\.")) {
+                    if (value instanceof final Map<?, ?> map) {
+                        value = map.get(name);
+                    } else if (value instanceof final List<?> list) {
+                        value = list.stream().map(e -> e instanceof final Map<?, ?> map ? map.get(name) : null).toList();
+                    } else if (value instanceof final String str && "length".equals(name)) {
+                        value = str.length();
+                    } else {
+                        return null;
+                    }
+                }
+                return value;
+            }
+
+            @Override
+            public String getName() {
+                return "groovy";
+            }
+        };
+        final CompiledScriptMap compiled = new CompiledScriptMap(scriptMap, "groovy", () -> pathEngine);
+        // any other script type passes every template to the engine, as AbstractDataStore#convertValue does
+        final CompiledScriptMap engine = new CompiledScriptMap(scriptMap, "engine", () -> pathEngine);
+
+        final Map<String, Object> meta = new HashMap<>();
+        meta.put("author", "Alice");
+        final Map<String, Object> data = new HashMap<>();
+        data.put("title", "Test");
+        data.put("meta", meta);
+        final Map<String, Object> nullData = new HashMap<>();
+        nullData.put("title", null);
+        nullData.put("meta", "not a map");
+        final List<Map<String, Object>> records = List.of(//
+                Map.of("url", "http://example.com", "data", data, "a.b", "literal key", "items",
+                        List.of(Map.of("name", "x"), Map.of("name", "y"))), //
+                Map.of("url", "http://example.com/2", "data", nullData, "a", Map.of("b", "nested")), //
+                Map.of("data", "not a map", "items", List.of()), //
+                Map.of());
+        for (final Map<String, Object> record : records) {
+            final Map<String, Object> expected = new HashMap<>();
+            engine.evaluate(record, expected);
+            final Map<String, Object> actual = new HashMap<>();
+            compiled.evaluate(record, actual);
+            assertEquals(record.toString(), expected, actual);
+        }
+    }
+}
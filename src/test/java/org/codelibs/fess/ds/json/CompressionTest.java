@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class CompressionTest extends PlainTestCase {
+
+    public void test_fromFilename() {
+        assertEquals(Compression.GZIP, Compression.fromFilename("a.jsonl.gz"));
+        assertEquals(Compression.BZIP2, Compression.fromFilename("a.JSONL.BZ2"));
+        assertNull(Compression.fromFilename("a.json.xz"));
+        assertNull(Compression.fromFilename("a.jsonl"));
+
+        assertEquals("a.jsonl", Compression.stripSuffix("a.jsonl.gz"));
+        assertEquals("a.jsonl", Compression.stripSuffix("a.jsonl"));
+    }
+
+    public void test_detect() throws Exception {
+        final String value = "{\"id\":1}\n{\"id\":2}\n";
+        final byte[] gzip = compress(value, false);
+        final byte[] bzip2 = compress(value, true);
+
+        final InputStream gzipIn = new BufferedInputStream(new ByteArrayInputStream(gzip));
+        assertEquals(Compression.GZIP, Compression.detect(gzipIn));
+        assertEquals(value, read(Compression.GZIP.decompress(gzipIn, 16)));
+
+        final InputStream bzip2In = new BufferedInputStream(new ByteArrayInputStream(bzip2));
+        assertEquals(Compression.BZIP2, Compression.detect(bzip2In));
+        assertEquals(value, read(Compression.BZIP2.decompress(bzip2In, 16)));
+
+        final InputStream plainIn = new BufferedInputStream(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+        assertNull(Compression.detect(plainIn));
+        assertEquals(value, read(plainIn));
+
+        assertNull(Compression.detect(new BufferedInputStream(new ByteArrayInputStream(new byte[] { 0x1f }))));
+    }
+
+    private byte[] compress(final String value, final boolean bzip2) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream out = bzip2 ? new BZip2CompressorOutputStream(baos) : new GZIPOutputStream(baos)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return baos.toByteArray();
+    }
+
+    private String read(final InputStream in) throws Exception {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
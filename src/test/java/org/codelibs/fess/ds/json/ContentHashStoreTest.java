@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class ContentHashStoreTest extends PlainTestCase {
+
+    public void test_hash() {
+        final Map<String, Object> map1 = new LinkedHashMap<>();
+        map1.put("a", 1);
+        map1.put("b", List.of("x", "y"));
+        final Map<String, Object> map2 = new LinkedHashMap<>();
+        map2.put("b", List.of("x", "y"));
+        map2.put("a", 1);
+        assertEquals(ContentHashStore.hash(map1), ContentHashStore.hash(map2));
+
+        assertFalse(ContentHashStore.hash(Map.of("a", 1)) == ContentHashStore.hash(Map.of("a", "1")));
+        assertFalse(ContentHashStore.hash(List.of("ab", "c")) == ContentHashStore.hash(List.of("a", "bc")));
+        assertFalse(ContentHashStore.hash(Map.of("a", List.of())) == ContentHashStore.hash(Map.of("a", Map.of())));
+    }
+
+    public void test_saveAndLoad() throws Exception {
+        final Path path = Files.createTempDirectory("hash").resolve("hashes.bin");
+        final ContentHashStore store = new ContentHashStore(path, 1L);
+        store.load();
+        assertFalse(store.isUnchanged("a.jsonl", 10L, 100L));
+        store.put("a.jsonl", 10L, 100L);
+        store.put("a.jsonl", 0L, 200L);
+        store.save(true);
+
+        final ContentHashStore loaded = new ContentHashStore(path, 1L);
+        loaded.load();
+        assertTrue(loaded.isUnchanged("a.jsonl", 10L, 100L));
+        assertTrue(loaded.isUnchanged("a.jsonl", 0L, 200L));
+        assertFalse(loaded.isUnchanged("a.jsonl", 10L, 101L));
+        assertFalse(loaded.isUnchanged("a.jsonl", 11L, 100L));
+        assertEquals(2L, loaded.getUnchangedCount());
+
+        // unchanged records are kept without being put again
+        loaded.put("a.jsonl", 11L, 300L);
+        loaded.save(true);
+        final ContentHashStore reloaded = new ContentHashStore(path, 1L);
+        reloaded.load();
+        assertTrue(reloaded.isUnchanged("a.jsonl", 10L, 100L));
+        assertTrue(reloaded.isUnchanged("a.jsonl", 11L, 300L));
+
+        final ContentHashStore otherConfig = new ContentHashStore(path, 2L);
+        otherConfig.load();
+        assertFalse(otherConfig.isUnchanged("a.jsonl", 10L, 100L));
+    }
+
+    public void test_save_removedRecords() throws Exception {
+        final Path path = Files.createTempDirectory("hash").resolve("hashes.bin");
+        final ContentHashStore store = new ContentHashStore(path, 1L);
+        store.put("a.jsonl", 1L, 100L);
+        store.put("a.jsonl", 2L, 200L);
+        store.put("b.jsonl", 3L, 300L);
+        store.put("b.jsonl", 4L, 400L);
+        store.save(true);
+
+        // 2 is removed from a.jsonl, and b.jsonl is not fully read
+        final ContentHashStore loaded = new ContentHashStore(path, 1L);
+        loaded.load();
+        assertTrue(loaded.isUnchanged("a.jsonl", 1L, 100L));
+        loaded.put("b.jsonl", 3L, 301L);
+        loaded.markIncomplete("b.jsonl");
+        loaded.save(true);
+
+        final ContentHashStore reloaded = new ContentHashStore(path, 1L);
+        reloaded.load();
+        assertTrue(reloaded.isUnchanged("a.jsonl", 1L, 100L));
+        assertFalse(reloaded.isUnchanged("a.jsonl", 2L, 200L));
+        assertTrue(reloaded.isUnchanged("b.jsonl", 3L, 301L));
+        assertTrue(reloaded.isUnchanged("b.jsonl", 4L, 400L));
+
+        // a stopped crawl keeps all hashes
+        final ContentHashStore stopped = new ContentHashStore(path, 1L);
+        stopped.load();
+        stopped.save(false);
+        final ContentHashStore restarted = new ContentHashStore(path, 1L);
+        restarted.load();
+        assertTrue(restarted.isUnchanged("a.jsonl", 1L, 100L));
+        assertTrue(restarted.isUnchanged("b.jsonl", 3L, 301L));
+        assertTrue(restarted.isUnchanged("b.jsonl", 4L, 400L));
+    }
+
+    public void test_save_movedRecords() throws Exception {
+        final Path path = Files.createTempDirectory("hash").resolve("hashes.bin");
+        final ContentHashStore store = new ContentHashStore(path, 1L);
+        store.put("a.jsonl", 1L, 100L);
+        store.save(true);
+
+        // 1 is moved to b.jsonl without changes
+        final ContentHashStore moved = new ContentHashStore(path, 1L);
+        moved.load();
+        assertTrue(moved.isUnchanged("b.jsonl", 1L, 100L));
+        moved.save(true);
+
+        // b.jsonl is not fully read, so 1 is kept
+        final ContentHashStore incomplete = new ContentHashStore(path, 1L);
+        incomplete.load();
+        incomplete.markIncomplete("b.jsonl");
+        incomplete.save(true);
+        final ContentHashStore reloaded = new ContentHashStore(path, 1L);
+        reloaded.load();
+        assertTrue(reloaded.isUnchanged("b.jsonl", 1L, 100L));
+    }
+}
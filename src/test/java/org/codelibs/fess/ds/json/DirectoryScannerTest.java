@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class DirectoryScannerTest extends PlainTestCase {
+
+    private Path root;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        root = Files.createTempDirectory("scanner");
+        createFile("a.jsonl", 3000);
+        createFile("b.txt", 1000);
+        createFile("2024/01/c.jsonl", 2000);
+        createFile("2024/02/d.jsonl", 1000);
+        createFile("tmp/e.jsonl", 4000);
+    }
+
+    private void createFile(final String path, final long lastModified) throws Exception {
+        final Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "{}\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+    }
+
+    public void test_scan() throws Exception {
+        assertEquals(List.of("a.jsonl"), scan(1, List.of(), List.of(), null));
+        assertEquals(List.of("2024/02/d.jsonl", "2024/01/c.jsonl", "a.jsonl", "tmp/e.jsonl"), scan(0, List.of(), List.of(), null));
+        assertEquals(List.of("a.jsonl", "tmp/e.jsonl"), scan(2, List.of(), List.of(), null));
+        assertEquals(List.of("2024/01/c.jsonl", "a.jsonl"), scan(3, List.of("2024/01/*", "a.*"), List.of(), null));
+        assertEquals(List.of("2024/02/d.jsonl", "2024/01/c.jsonl", "a.jsonl"), scan(0, List.of(), List.of("tmp"), null));
+        assertEquals(List.of("2024/02/d.jsonl", "a.jsonl", "tmp/e.jsonl"), scan(0, List.of(), List.of("2024/01/**"), null));
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals(List.of("2024/02/d.jsonl", "2024/01/c.jsonl", "a.jsonl", "tmp/e.jsonl"),
+                    scan(0, List.of(), List.of(), executorService));
+            assertEquals(List.of("2024/02/d.jsonl", "a.jsonl"), scan(0, List.of(), List.of("tmp", "c.jsonl"), executorService));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private List<String> scan(final int maxDepth, final List<String> includes, final List<String> excludes,
+            final ExecutorService executorService) throws Exception {
+        final DirectoryScanner scanner = new DirectoryScanner(maxDepth, includes, excludes, false, name -> name.endsWith(".jsonl"));
+        return scanner.scan(root, executorService).stream()
+                .map(f -> root.relativize(f.toPath()).toString().replace(File.separatorChar, '/'))
+                .toList();
+    }
+}
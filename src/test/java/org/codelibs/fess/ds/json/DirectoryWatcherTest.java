@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class DirectoryWatcherTest extends PlainTestCase {
+
+    private Path root;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        root = Files.createTempDirectory("watcher");
+    }
+
+    public void test_poll() throws Exception {
+        final Path a = Files.writeString(root.resolve("a.jsonl"), "{}\n");
+        final DirectoryScanner scanner = new DirectoryScanner(0, List.of(), List.of(), false, name -> name.endsWith(".jsonl"));
+        try (DirectoryWatcher watcher = new DirectoryWatcher(List.of(root), scanner, 100L)) {
+            watcher.markReported(List.of(a.toFile()));
+            watcher.start();
+
+            Files.writeString(root.resolve("b.txt"), "{}\n");
+            final Path b = Files.writeString(root.resolve("b.jsonl"), "{}\n");
+            assertEquals(List.of(b.toFile()), pollFiles(watcher, 1));
+
+            Files.createDirectories(root.resolve("sub"));
+            final Path c = Files.writeString(root.resolve("sub/c.jsonl"), "{}\n");
+            assertEquals(List.of(c.toFile()), pollFiles(watcher, 1));
+
+            Files.writeString(a, "{}\n{}\n");
+            assertEquals(List.of(a.toFile()), pollFiles(watcher, 1));
+
+            watcher.retry(b.toFile());
+            assertEquals(List.of(b.toFile()), pollFiles(watcher, 1));
+
+            assertTrue(pollFiles(watcher, 0).isEmpty());
+        }
+    }
+
+    private List<File> pollFiles(final DirectoryWatcher watcher, final int expected) throws Exception {
+        final List<File> files = new ArrayList<>();
+        final long end = System.currentTimeMillis() + (expected > 0 ? 10000L : 1000L);
+        while (System.currentTimeMillis() < end && (expected == 0 || files.size() < expected)) {
+            files.addAll(watcher.poll(100L));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class FileFollowerTest extends PlainTestCase {
+
+    private Path file;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        file = Files.createTempDirectory("follower").resolve("a.jsonl");
+    }
+
+    public void test_read() throws Exception {
+        try (FileFollower follower = new FileFollower(file.toFile(), 4)) {
+            assertNull(follower.open());
+            assertEquals(List.of(), read(follower));
+
+            append("{\"a\":1}\n{\"a\":2");
+            assertEquals(List.of("1:{\"a\":1}"), read(follower));
+            assertEquals(8L, follower.getOffset());
+
+            append("}\r\n{\"a\":3}\n");
+            assertEquals(List.of("2:{\"a\":2}", "3:{\"a\":3}"), read(follower));
+            assertEquals(List.of(), read(follower));
+            assertEquals(3L, follower.getLines());
+
+            Files.writeString(file, "{\"b\":1}\n");
+            assertEquals(List.of("1#1:{\"b\":1}"), read(follower));
+            assertEquals(8L, follower.getOffset());
+            assertEquals(1L, follower.getGeneration());
+        }
+    }
+
+    public void test_read_rotated() throws Exception {
+        append("{\"a\":1}\n");
+        try (FileFollower follower = new FileFollower(file.toFile(), 16)) {
+            assertNotNull(follower.open());
+            assertEquals(List.of("1:{\"a\":1}"), read(follower));
+
+            append("{\"a\":2}\n");
+            final Path rotated = file.resolveSibling("a.jsonl.1");
+            Files.move(file, rotated);
+            Files.writeString(file, "{\"b\":1}\n");
+            assertEquals(List.of("2:{\"a\":2}", "1#1:{\"b\":1}"), read(follower));
+
+            // the writer appends to the old file after the rotation
+            Files.writeString(rotated, "{\"a\":3}\n{\"a\":4}", StandardOpenOption.APPEND);
+            append("{\"b\":2}\n");
+            assertEquals(List.of("3:{\"a\":3}", "1#2:{\"b\":2}"), read(follower));
+            assertEquals(List.of("4:{\"a\":4}"), read(follower));
+            assertEquals(List.of(), read(follower));
+            assertEquals(2L, follower.getLines());
+        }
+    }
+
+    public void test_seek() throws Exception {
+        append("{\"a\":1}\n{\"a\":2}\n");
+        try (FileFollower follower = new FileFollower(file.toFile(), 16)) {
+            follower.open();
+            follower.seek(8L, 1L);
+            follower.setGeneration(3L);
+            assertEquals(List.of("3#2:{\"a\":2}"), read(follower));
+        }
+    }
+
+    private void append(final String value) throws Exception {
+        Files.writeString(file, value, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private List<String> read(final FileFollower follower) throws Exception {
+        final List<String> lines = new ArrayList<>();
+        follower.read((generation, line, buffer, offset, length) -> {
+            lines.add((generation > 0 ? generation + "#" : "") + line + ":" + new String(buffer, offset, length, StandardCharsets.UTF_8));
+            return true;
+        });
+        return lines;
+    }
+}
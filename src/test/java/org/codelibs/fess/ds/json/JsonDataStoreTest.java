@@ -15,9 +15,23 @@
  */
 package org.codelibs.fess.ds.json;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.es.config.exentity.DataConfig;
+import org.codelibs.fess.helper.CrawlerStatsHelper;
 import org.codelibs.fess.util.ComponentUtil;
 import org.dbflute.utflute.lastadi.ContainerTestCase;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class JsonDataStoreTest extends ContainerTestCase {
     public JsonDataStore dataStore;
 
@@ -47,4 +61,91 @@ public class JsonDataStoreTest extends ContainerTestCase {
         // TODO
         assertTrue(true);
     }
+
+    public void test_processFile_leased() throws Exception {
+        final Path dir = Files.createTempDirectory("json");
+        final File file = Files.writeString(dir.resolve("a.jsonl"), "{\"id\":\"1\"}\n{\"id\":\"2\"}\n").toFile();
+        final String state = file.length() + ":" + file.lastModified();
+        final List<Object> stored = new ArrayList<>();
+        try (LeaseCoordinator coordinator = new LeaseCoordinator(Files.createDirectory(dir.resolve("leases")), "node1", 60000L, 1L)) {
+            final DataStoreParams paramMap = new DataStoreParams();
+            dataStore.processFile(createLeasedContext(coordinator, dir, stored, "2"), paramMap, file);
+            assertEquals(List.of("1"), stored);
+            assertFalse(coordinator.isDone("0:a.jsonl", state));
+
+            stored.clear();
+            dataStore.processFile(createLeasedContext(coordinator, dir, stored, null), paramMap, file);
+            assertEquals(List.of("1", "2"), stored);
+            assertTrue(coordinator.isDone("0:a.jsonl", state));
+        }
+    }
+
+    public void test_getWorkUnit() throws Exception {
+        final Path dir = Files.createTempDirectory("json");
+        final JsonDataStore.CrawlContext context = new JsonDataStore.CrawlContext(null, null, null);
+        context.roots = List.of(dir.resolve("x"), dir.resolve("y"));
+        assertEquals("1:sub/a.jsonl", JsonDataStore.getWorkUnit(context, dir.resolve("y/sub/a.jsonl").toFile()));
+        assertEquals("0:a.jsonl", JsonDataStore.getWorkUnit(context, dir.resolve("x/../x/a.jsonl").toFile()));
+        final File other = dir.resolve("z/a.jsonl").toFile();
+        assertEquals(other.getPath().replace(File.separatorChar, '/'), JsonDataStore.getWorkUnit(context, other));
+    }
+
+    private JsonDataStore.CrawlContext createLeasedContext(final LeaseCoordinator coordinator, final Path dir, final List<Object> stored,
+            final String failingId) {
+        final IndexUpdateCallback callback = new IndexUpdateCallback() {
+            @Override
+            public void store(final DataStoreParams paramMap, final Map<String, Object> dataMap) {
+                if (dataMap.get("url").equals(failingId)) {
+                    throw new IllegalStateException("Failed to store " + failingId);
+                }
+                stored.add(dataMap.get("url"));
+            }
+
+            @Override
+            public long getDocumentSize() {
+                return stored.size();
+            }
+
+            @Override
+            public long getExecuteTime() {
+                return 0;
+            }
+
+            @Override
+            public void commit() {
+            }
+        };
+        final CompiledScriptMap scripts = new CompiledScriptMap(Map.of("url", "id"), "groovy", () -> null);
+        final RecordProcessor processor = new RecordProcessor(new DataConfig(), callback, scripts, new HashMap<>()) {
+            @Override
+            protected CrawlerStatsHelper getCrawlerStatsHelper() {
+                return new CrawlerStatsHelper() {
+                    @Override
+                    public void begin(final Object keyObj) {
+                    }
+
+                    @Override
+                    public void record(final Object keyObj, final StatsAction action) {
+                    }
+
+                    @Override
+                    public void record(final Object keyObj, final String action) {
+                    }
+
+                    @Override
+                    public void done(final Object keyObj) {
+                    }
+                };
+            }
+
+            @Override
+            protected void storeFailureUrl(final String url, final Throwable t) {
+            }
+        };
+        final JsonFileReader fileReader = new JsonFileReader(new DatabindJsonRecordParser(new ObjectMapper()), "UTF-8", null, () -> true);
+        final JsonDataStore.CrawlContext context = new JsonDataStore.CrawlContext(processor, fileReader, null);
+        context.leaseCoordinator = coordinator;
+        context.roots = List.of(dir);
+        return context;
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.dbflute.utflute.core.PlainTestCase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonFileReaderTest extends PlainTestCase {
+
+    public void test_detectArrayFormat() throws Exception {
+        final JsonFileReader reader = newReader();
+        assertTrue(reader.detectArrayFormat(newInputStream("[{\"a\":1}]")));
+        assertTrue(reader.detectArrayFormat(newInputStream("  \n\t[\n  {\"a\":1}\n]")));
+        assertTrue(reader.detectArrayFormat(newInputStream("\uFEFF[]")));
+        assertFalse(reader.detectArrayFormat(newInputStream("{\"a\":1}\n{\"a\":2}")));
+        assertFalse(reader.detectArrayFormat(newInputStream("")));
+
+        final InputStream in = newInputStream(" [1]");
+        assertTrue(reader.detectArrayFormat(in));
+        assertEquals(' ', in.read());
+    }
+
+    public void test_read_lines() throws Exception {
+        final File file = createFile("{\"a\":1}\n{\"a\":\n{\"a\":3}");
+        try {
+            final ListSink sink = new ListSink();
+            assertEquals(3L, newReader().read(new DataStoreParams(), sink, file, null));
+            assertEquals(List.of("1={a=1}", "2=error", "3={a=3}"), sink.records);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void test_read_array() throws Exception {
+        final File file = createFile("[{\"a\":1}, 2, [3, [4]], {\"a\":5}]");
+        try {
+            final ListSink sink = new ListSink();
+            assertEquals(4L, newReader().read(new DataStoreParams(), sink, file, null));
+            // elements which are not objects are skipped as a whole
+            assertEquals(List.of("1={a=1}", "2=error", "3=error", "4={a=5}"), sink.records);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void test_read_array_parseError() throws Exception {
+        final File file = createFile("[{\"a\":1}, {\"a\":tru, \"b\":{\"c\":2}}, {\"a\":3}]");
+        try {
+            final ListSink sink = new ListSink();
+            try {
+                newReader().read(new DataStoreParams(), sink, file, null);
+                fail();
+            } catch (final IOException e) {
+                // the rest of the element cannot be told from the next elements
+            }
+            assertEquals(List.of("1={a=1}", "2=error"), sink.records);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void test_read_compressed() throws Exception {
+        final File dir = Files.createTempDirectory("compressed").toFile();
+        final byte[] value = "{\"a\":1}\n{\"a\":2}\n".getBytes(StandardCharsets.UTF_8);
+        // bzip2 is detected by the suffix, and gzip by magic bytes
+        final File bzip2File = new File(dir, "records.jsonl.bz2");
+        try (OutputStream out = new BZip2CompressorOutputStream(new FileOutputStream(bzip2File))) {
+            out.write(value);
+        }
+        final File gzipFile = new File(dir, "records.jsonl");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipFile))) {
+            out.write(value);
+        }
+        try {
+            for (final File file : List.of(bzip2File, gzipFile)) {
+                final ListSink sink = new ListSink();
+                assertEquals(2L, newReader().read(new DataStoreParams(), sink, file, null));
+                assertEquals(List.of("1={a=1}", "2={a=2}"), sink.records);
+            }
+        } finally {
+            bzip2File.delete();
+            gzipFile.delete();
+            dir.delete();
+        }
+    }
+
+    public void test_read_checkpoint_failure() throws Exception {
+        final File dir = Files.createTempDirectory("checkpoint").toFile();
+        final File file = new File(dir, "records.jsonl");
+        final File storeFile = new File(dir, "checkpoints.json");
+        Files.writeString(file.toPath(), "{\"a\":1}\n{\"a\":2}\n");
+        final CheckpointStore checkpointStore = new CheckpointStore(storeFile.toPath(), new ObjectMapper());
+        final JsonFileReader reader = newReader();
+        reader.setCheckpointStore(checkpointStore, 0L);
+        try {
+            assertEquals(2L, reader.read(new DataStoreParams(), new ListSink(), file, null));
+            assertEquals(2L, checkpointStore.get(file.getAbsolutePath()).getLines());
+
+            // the record of line 3 fails, so the checkpoint stays at line 2
+            Files.writeString(file.toPath(), "{\"a\":3}\n{\"a\":4}\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            final ListSink failingSink = new ListSink(3L);
+            assertEquals(2L, reader.read(new DataStoreParams(), failingSink, file, null));
+            assertEquals(List.of("3=failed", "4={a=4}"), failingSink.records);
+            assertEquals(2L, checkpointStore.get(file.getAbsolutePath()).getLines());
+
+            // the next crawl resumes before the failed record
+            final ListSink sink = new ListSink();
+            assertEquals(2L, reader.read(new DataStoreParams(), sink, file, null));
+            assertEquals(List.of("3={a=3}", "4={a=4}"), sink.records);
+            assertEquals(4L, checkpointStore.get(file.getAbsolutePath()).getLines());
+        } finally {
+            file.delete();
+            storeFile.delete();
+            dir.delete();
+        }
+    }
+
+    private JsonFileReader newReader() {
+        return new JsonFileReader(new DatabindJsonRecordParser(new ObjectMapper()), "UTF-8", null, () -> true);
+    }
+
+    private File createFile(final String value) throws IOException {
+        final File file = File.createTempFile("records", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), value.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private InputStream newInputStream(final String value) {
+        return new BufferedInputStream(new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static class ListSink implements RecordSink {
+        private final List<String> records = new ArrayList<>();
+
+        private final Set<Long> failingLines;
+
+        private final Set<String> failedSources = new HashSet<>();
+
+        ListSink(final Long... failingLines) {
+            this.failingLines = Set.of(failingLines);
+        }
+
+        @Override
+        public void accept(final DataStoreParams paramMap, final String path, final long line, final RecordLoader loader) {
+            if (failingLines.contains(line)) {
+                records.add(line + "=failed");
+                failedSources.add(path);
+                return;
+            }
+            try {
+                records.add(line + "=" + loader.load());
+            } catch (final IOException e) {
+                records.add(line + "=error");
+            }
+        }
+
+        @Override
+        public void flush(final DataStoreParams paramMap) {
+            // nothing is batched
+        }
+
+        @Override
+        public void markIncomplete(final String source) {
+            // nothing is deleted
+        }
+
+        @Override
+        public boolean hasFailure(final String source) {
+            return failedSources.contains(source);
+        }
+
+        @Override
+        public boolean isSynchronous() {
+            return true;
+        }
+    }
+}
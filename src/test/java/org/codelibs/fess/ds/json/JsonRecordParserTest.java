@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonRecordParserTest extends PlainTestCase {
+
+    private static final String JSON = "{\"id\":1,\"big\":12345678901,\"score\":1.5,\"title\":\"Test\",\"flag\":true,\"none\":null,"
+            + "\"tags\":[\"a\",\"b\"],\"meta\":{\"x\":{\"y\":2}}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public void test_databind() throws Exception {
+        assertRecord(new DatabindJsonRecordParser(objectMapper));
+    }
+
+    public void test_streaming() throws Exception {
+        assertRecord(new StreamingJsonRecordParser(objectMapper.getFactory()));
+    }
+
+    public void test_sameResult() throws Exception {
+        final JsonRecordParser databind = new DatabindJsonRecordParser(objectMapper);
+        final JsonRecordParser streaming = new StreamingJsonRecordParser(objectMapper.getFactory());
+        assertEquals(databind.parse(JSON), streaming.parse(JSON));
+    }
+
+    public void test_projecting() throws Exception {
+        final Set<String> fields = Set.of("id", "tags", "meta");
+        final JsonRecordParser databind = new ProjectingJsonRecordParser(new DatabindJsonRecordParser(objectMapper), fields);
+        final JsonRecordParser streaming = new ProjectingJsonRecordParser(new StreamingJsonRecordParser(objectMapper.getFactory()), fields);
+        final Map<String, Object> expected = Map.of("id", 1, "tags", List.of("a", "b"), "meta", Map.of("x", Map.of("y", 2)));
+        assertEquals(expected, databind.parse(JSON));
+        assertEquals(expected, streaming.parse(JSON));
+        final byte[] bytes = JSON.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected, databind.parse(bytes, 0, bytes.length));
+    }
+
+    public void test_streaming_notObject() throws Exception {
+        final JsonRecordParser parser = new StreamingJsonRecordParser(objectMapper.getFactory());
+        try {
+            parser.parse("[1,2]");
+            fail();
+        } catch (final Exception e) {
+            // expected
+        }
+    }
+
+    private void assertRecord(final JsonRecordParser parser) throws Exception {
+        final Map<String, Object> map = parser.parse(JSON);
+        assertEquals(map, parser.parse(parser.getFactory().createParser(JSON)));
+        final byte[] bytes = ("xx" + JSON + "\n").getBytes(StandardCharsets.UTF_8);
+        assertEquals(map, parser.parse(bytes, 2, bytes.length - 3));
+
+        assertEquals(Integer.valueOf(1), map.get("id"));
+        assertEquals(Long.valueOf(12345678901L), map.get("big"));
+        assertEquals(Double.valueOf(1.5), map.get("score"));
+        assertEquals("Test", map.get("title"));
+        assertEquals(Boolean.TRUE, map.get("flag"));
+        assertTrue(map.containsKey("none"));
+        assertNull(map.get("none"));
+        assertEquals(List.of("a", "b"), map.get("tags"));
+        assertEquals(Map.of("x", Map.of("y", 2)), map.get("meta"));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class LatencyHistogramTest extends PlainTestCase {
+
+    public void test_getPercentile() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000, 1);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertPercentile(500_000, histogram.getPercentile(50));
+        assertPercentile(990_000, histogram.getPercentile(99));
+        assertEquals(1_000_000, histogram.getPercentile(100));
+    }
+
+    public void test_record_count() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100, 9);
+        histogram.record(-1, 1);
+        histogram.record(5, 0);
+        assertEquals(10, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(10));
+        assertPercentile(100, histogram.getPercentile(50));
+    }
+
+    public void test_getBucketCounts() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, LatencyHistogram.getPercentile(histogram.getBucketCounts(), 50));
+        assertEquals(0, LatencyHistogram.getMax(histogram.getBucketCounts()));
+        histogram.record(1_000_000, 100);
+        final long[] start = histogram.getBucketCounts();
+        for (long i = 1; i <= 100; i++) {
+            histogram.record(i * 1000, 1);
+        }
+        final long[] end = histogram.getBucketCounts();
+        final long[] interval = new long[end.length];
+        for (int i = 0; i < end.length; i++) {
+            interval[i] = end[i] - start[i];
+        }
+        assertPercentile(50_000, LatencyHistogram.getPercentile(interval, 50));
+        assertPercentile(99_000, LatencyHistogram.getPercentile(interval, 99));
+        assertPercentile(100_000, LatencyHistogram.getMax(interval));
+        assertPercentile(1_000_000, histogram.getPercentile(99));
+    }
+
+    public void test_getIndex() {
+        for (long value = 0; value < 100_000; value++) {
+            final int index = LatencyHistogram.getIndex(value);
+            assertTrue(value + " @ " + index, value <= LatencyHistogram.getHighestValue(index));
+            if (index > 0) {
+                assertTrue(value + " @ " + index, value > LatencyHistogram.getHighestValue(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getHighestValue(LatencyHistogram.getIndex(Long.MAX_VALUE)));
+    }
+
+    private void assertPercentile(final long expected, final long actual) {
+        assertTrue(expected + " != " + actual, actual >= expected && actual <= expected * 1.125);
+    }
+}
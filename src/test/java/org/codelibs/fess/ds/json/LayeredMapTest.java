@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class LayeredMapTest extends PlainTestCase {
+
+    public void test_view() {
+        final Map<String, Object> record = new LinkedHashMap<>();
+        record.put("title", "record");
+        record.put("url", "http://example.com");
+        record.put("none", null);
+        final Map<String, Object> params = new LinkedHashMap<>();
+        params.put("title", "param");
+        params.put("none", "param");
+        params.put("files", "a.jsonl");
+
+        final Map<String, Object> map = new LayeredMap<>(record, params);
+        assertEquals("record", map.get("title"));
+        assertEquals("a.jsonl", map.get("files"));
+        assertNull(map.get("none"));
+        assertTrue(map.containsKey("none"));
+        assertFalse(map.containsKey("unknown"));
+        assertEquals(4, map.size());
+
+        final Map<String, Object> expected = new HashMap<>(params);
+        expected.putAll(record);
+        assertEquals(expected, new HashMap<>(map));
+        assertEquals(expected, map);
+    }
+
+    public void test_readOnly() {
+        final Map<String, Object> map = new LayeredMap<>(new HashMap<>(), new HashMap<>());
+        assertTrue(map.isEmpty());
+        try {
+            map.put("a", "b");
+            fail();
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class LeaseCoordinatorTest extends PlainTestCase {
+
+    private Path dir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory("lease");
+    }
+
+    public void test_acquire() throws Exception {
+        try (LeaseCoordinator node1 = new LeaseCoordinator(dir, "node1", 60000L, 1L);
+                LeaseCoordinator node2 = new LeaseCoordinator(dir, "node2", 60000L, 1L)) {
+            final LeaseCoordinator.Lease lease = node1.acquire("a.jsonl", "10:1");
+            assertNotNull(lease);
+            assertNull(node2.acquire("a.jsonl", "10:1"));
+            assertFalse(node2.isDone("a.jsonl", "10:1"));
+            assertNotNull(node2.acquire("b.jsonl", "10:1"));
+
+            node1.release(lease, true);
+            assertTrue(node2.isDone("a.jsonl", "10:1"));
+            assertNull(node2.acquire("a.jsonl", "10:1"));
+            // the file has changed
+            assertNotNull(node2.acquire("a.jsonl", "20:2"));
+        }
+        // settings have changed
+        try (LeaseCoordinator node3 = new LeaseCoordinator(dir, "node3", 60000L, 2L)) {
+            assertFalse(node3.isDone("a.jsonl", "10:1"));
+            assertNotNull(node3.acquire("a.jsonl", "10:1"));
+        }
+    }
+
+    public void test_acquire_expired() throws Exception {
+        try (LeaseCoordinator node1 = new LeaseCoordinator(dir, "node1", 1000L, 1L);
+                LeaseCoordinator node2 = new LeaseCoordinator(dir, "node2", 1000L, 1L)) {
+            final LeaseCoordinator.Lease lease = node1.acquire("a.jsonl", "10:1");
+            assertNotNull(lease);
+            node1.renew();
+            assertNull(node2.acquire("a.jsonl", "10:1"));
+
+            try (var files = Files.list(dir)) {
+                final Path leaseFile = files.filter(p -> p.toString().endsWith(".lease")).findFirst().get();
+                Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis() - 2000L));
+            }
+            final LeaseCoordinator.Lease stolen = node2.acquire("a.jsonl", "10:1");
+            assertNotNull(stolen);
+            assertEquals("a.jsonl", stolen.getUnit());
+
+            // the lease of node1 is dropped, and its release does not remove the lease of node2
+            node1.renew();
+            node1.release(lease, false);
+            assertNull(node1.acquire("a.jsonl", "10:1"));
+            node2.release(stolen, true);
+            assertTrue(node1.isDone("a.jsonl", "10:1"));
+        }
+    }
+}
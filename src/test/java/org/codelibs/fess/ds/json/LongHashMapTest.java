@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class LongHashMapTest extends PlainTestCase {
+
+    public void test_put() {
+        final LongHashMap map = new LongHashMap();
+        for (long i = 0; i < 1000; i++) {
+            map.put(i * 31, i);
+        }
+        map.put(31, -1);
+        assertEquals(1000, map.size());
+        assertTrue(map.containsKey(0));
+        assertEquals(0L, map.get(0));
+        assertEquals(-1L, map.get(31));
+        assertEquals(999L, map.get(999 * 31));
+        assertFalse(map.containsKey(1));
+    }
+}
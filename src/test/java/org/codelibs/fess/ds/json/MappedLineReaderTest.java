@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class MappedLineReaderTest extends PlainTestCase {
+
+    public void test_next() throws Exception {
+        assertEquals(List.of("a", "bb", "", "ccc"), readLines("a\nbb\r\n\nccc", 1024));
+        assertEquals(List.of("a", "bb", "", "ccc"), readLines("a\nbb\r\n\nccc", 3));
+        assertEquals(List.of("{}"), readLines("\uFEFF{}\n", 2));
+        assertEquals(List.of(), readLines("", 8));
+    }
+
+    public void test_straddle() throws Exception {
+        final String line = "x".repeat(100);
+        assertEquals(List.of(line, "y", line), readLines(line + "\ny\n" + line + "\n", 7));
+    }
+
+    private List<String> readLines(final String value, final long windowSize) throws Exception {
+        final File file = File.createTempFile("mapped", ".jsonl");
+        file.deleteOnExit();
+        Files.write(file.toPath(), value.getBytes(StandardCharsets.UTF_8));
+        final List<String> list = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                MappedLineReader reader = new MappedLineReader(channel, windowSize)) {
+            while (reader.next()) {
+                final ByteBuffer line = reader.getLine();
+                final byte[] bytes = new byte[line.remaining()];
+                line.get(bytes);
+                list.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        } finally {
+            file.delete();
+        }
+        return list;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class RangeReaderTest extends PlainTestCase {
+
+    public void test_getRangeBoundaries() throws Exception {
+        final RangeReader reader = newReader();
+        final File file = File.createTempFile("ranges", ".jsonl");
+        file.deleteOnExit();
+        try {
+            // lines start at 0, 10, 11, 22, 23 and the file size is 24
+            Files.write(file.toPath(), "123456789\n\n1234567890\n\n\n".getBytes(StandardCharsets.UTF_8));
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                assertEquals("[0, 24]", Arrays.toString(reader.getRangeBoundaries(channel, 1)));
+                assertEquals("[0, 22, 24]", Arrays.toString(reader.getRangeBoundaries(channel, 2)));
+                assertEquals("[0, 10, 22, 24]", Arrays.toString(reader.getRangeBoundaries(channel, 3)));
+                assertEquals("[0, 10, 11, 22, 23, 24]", Arrays.toString(reader.getRangeBoundaries(channel, 24)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void test_readSplit() throws Exception {
+        final RangeReader reader = newReader();
+        final File file = File.createTempFile("ranges", ".jsonl");
+        file.deleteOnExit();
+        try {
+            // ranges of 8 bytes start at 0, 10 and 22
+            Files.write(file.toPath(), "123456789\n\n1234567890\n\n\n".getBytes(StandardCharsets.UTF_8));
+            final List<String> ranges = new ArrayList<>();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final long count = reader.readSplit(channel, 8, 1, (range, start, end, firstLine) -> {
+                    ranges.add(range + ":" + start + "-" + end + "@" + firstLine);
+                    // the second range is read by another crawler, and its lines are counted
+                    return range == 1 ? RangeReader.RANGE_SKIPPED : 1;
+                });
+                assertEquals(2L, count);
+            }
+            assertEquals(List.of("0:0-10@0", "1:10-22@1", "2:22-24@3"), ranges);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private RangeReader newReader() {
+        return new RangeReader(new DatabindJsonRecordParser(new ObjectMapper()), null, () -> true);
+    }
+}
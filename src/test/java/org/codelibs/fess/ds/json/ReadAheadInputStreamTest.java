@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class ReadAheadInputStreamTest extends PlainTestCase {
+
+    public void test_read() throws Exception {
+        final byte[] data = new byte[100_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(data), 1000, 2, "test")) {
+            assertEquals(data[0] & 0xff, in.read());
+            final byte[] rest = in.readAllBytes();
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1, data.length), rest));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    public void test_error() throws Exception {
+        final InputStream source = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try (InputStream in = new ReadAheadInputStream(source, 16, 2, "test")) {
+            in.read();
+            fail();
+        } catch (final IOException e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+    }
+
+    public void test_closeEarly() throws Exception {
+        final InputStream source = new InputStream() {
+            @Override
+            public int read() {
+                return 'x';
+            }
+        };
+        final InputStream in = new ReadAheadInputStream(source, 16, 2, "test");
+        assertEquals('x', in.read());
+        in.close();
+        in.close();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class RecordPipelineTest extends PlainTestCase {
+
+    public void test_pipeline() throws Exception {
+        final Set<Integer> stored = ConcurrentHashMap.newKeySet();
+        try (RecordPipeline<Integer> pipeline = new RecordPipeline<>("test", 3, 2, 4, 0L, () -> i -> i % 2 == 0, () -> stored::add)) {
+            for (int i = 0; i < 1000; i++) {
+                pipeline.submit(i);
+            }
+        }
+        assertEquals(500, stored.size());
+        for (int i = 0; i < 1000; i += 2) {
+            assertTrue(stored.contains(i));
+        }
+    }
+
+    public void test_failure() throws Exception {
+        final Set<Integer> stored = ConcurrentHashMap.newKeySet();
+        try (RecordPipeline<Integer> pipeline = new RecordPipeline<>("test", 1, 1, 1, 0L, () -> i -> {
+            if (i == 5) {
+                throw new IllegalStateException("test");
+            }
+            return true;
+        }, () -> stored::add)) {
+            for (int i = 0; i < 10; i++) {
+                pipeline.submit(i);
+            }
+        }
+        assertEquals(9, stored.size());
+        assertFalse(stored.contains(5));
+    }
+
+    public void test_logStatus() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicInteger logCount = new AtomicInteger();
+        final CountDownLatch logged = new CountDownLatch(3);
+        final RecordPipeline<Integer> pipeline = new RecordPipeline<>("test", 1, 1, 1, 10L, () -> i -> {
+            try {
+                return released.await(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                return false;
+            }
+        }, () -> i -> {}) {
+            @Override
+            protected void logStatus() {
+                logCount.incrementAndGet();
+                logged.countDown();
+            }
+        };
+        final Thread reader = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                pipeline.submit(i);
+            }
+        });
+        reader.start();
+        try {
+            // the status is logged while the reader is blocked by the full queue
+            assertTrue(logged.await(10, TimeUnit.SECONDS));
+            assertTrue(reader.isAlive());
+        } finally {
+            released.countDown();
+            reader.join();
+            pipeline.close();
+        }
+        final int count = logCount.get();
+        Thread.sleep(50L);
+        assertEquals(count, logCount.get());
+    }
+}
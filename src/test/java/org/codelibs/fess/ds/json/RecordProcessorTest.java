@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.es.config.exentity.DataConfig;
+import org.codelibs.fess.helper.CrawlerStatsHelper;
+import org.dbflute.utflute.core.PlainTestCase;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class RecordProcessorTest extends PlainTestCase {
+
+    private final JsonRecordParser recordParser = new DatabindJsonRecordParser(new ObjectMapper());
+
+    public void test_estimateSize() {
+        final RecordProcessor processor = new RecordProcessor(null, null, null, Map.of());
+        assertEquals(0L, processor.estimateSize(null));
+        assertEquals(8L, processor.estimateSize(1));
+        assertEquals(6L, processor.estimateSize("abc"));
+        assertEquals(2L + 6L + 2L + 8L, processor.estimateSize(Map.of("a", List.of("abc"), "b", 1)));
+    }
+
+    public void test_batch() {
+        final ListCallback callback = new ListCallback();
+        final TestProcessor processor = new TestProcessor(callback);
+        processor.setBatch(3, Long.MAX_VALUE);
+        final DataStoreParams paramMap = new DataStoreParams();
+        for (int i = 1; i <= 4; i++) {
+            processor.accept(paramMap, "/a.jsonl", i, RecordLoader.ofString(recordParser, "{\"id\":\"" + i + "\"}"));
+        }
+        assertEquals(List.of("1", "2", "3", "commit"), callback.events);
+
+        processor.flush(paramMap);
+        assertEquals(List.of("1", "2", "3", "commit", "4", "commit"), callback.events);
+        processor.flush(paramMap);
+        assertEquals(6, callback.events.size());
+        assertFalse(processor.hasFailure("/a.jsonl"));
+    }
+
+    public void test_batch_bytes() {
+        final ListCallback callback = new ListCallback();
+        final TestProcessor processor = new TestProcessor(callback);
+        // the estimated size of a record is 2 * (3 + 1) bytes
+        processor.setBatch(100, 16L);
+        final DataStoreParams paramMap = new DataStoreParams();
+        for (int i = 1; i <= 3; i++) {
+            processor.accept(paramMap, "/a.jsonl", i, RecordLoader.ofString(recordParser, "{\"id\":\"" + i + "\"}"));
+        }
+        assertEquals(List.of("1", "2", "commit"), callback.events);
+
+        processor.finish(paramMap);
+        assertEquals(List.of("1", "2", "commit", "3", "commit"), callback.events);
+    }
+
+    public void test_batch_failure() {
+        final ListCallback callback = new ListCallback();
+        callback.failingId = "2";
+        callback.failingCommits = 1;
+        final TestProcessor processor = new TestProcessor(callback);
+        processor.setBatch(3, Long.MAX_VALUE);
+        final DataStoreParams paramMap = new DataStoreParams();
+        for (int i = 1; i <= 3; i++) {
+            processor.accept(paramMap, "/a.jsonl", i, RecordLoader.ofString(recordParser, "{\"id\":\"" + i + "\"}"));
+        }
+        // the failed record is reported by itself, and the failed commit for the records stored before it
+        assertEquals(List.of("1", "3", "commit"), callback.events);
+        assertEquals(List.of("/a.jsonl@2", "/a.jsonl@1", "/a.jsonl@3"), processor.failureUrls);
+        assertTrue(processor.hasFailure("/a.jsonl"));
+
+        processor.accept(paramMap, "/b.jsonl", 1, RecordLoader.ofString(recordParser, "{\"id\":\"4\"}"));
+        processor.flush(paramMap);
+        assertEquals(3, processor.failureUrls.size());
+        assertFalse(processor.hasFailure("/b.jsonl"));
+    }
+
+    private static class TestProcessor extends RecordProcessor {
+        private final List<String> failureUrls = new ArrayList<>();
+
+        TestProcessor(final IndexUpdateCallback callback) {
+            super(new DataConfig(), callback, new CompiledScriptMap(Map.of("url", "id"), "groovy", () -> null), new HashMap<>());
+        }
+
+        @Override
+        protected CrawlerStatsHelper getCrawlerStatsHelper() {
+            return new CrawlerStatsHelper() {
+                @Override
+                public void begin(final Object keyObj) {
+                }
+
+                @Override
+                public void record(final Object keyObj, final StatsAction action) {
+                }
+
+                @Override
+                public void record(final Object keyObj, final String action) {
+                }
+
+                @Override
+                public void done(final Object keyObj) {
+                }
+            };
+        }
+
+        @Override
+        protected void storeFailureUrl(final String url, final Throwable t) {
+            failureUrls.add(url);
+        }
+    }
+
+    private static class ListCallback implements IndexUpdateCallback {
+        private final List<String> events = new ArrayList<>();
+
+        private String failingId;
+
+        private int failingCommits;
+
+        @Override
+        public void store(final DataStoreParams paramMap, final Map<String, Object> dataMap) {
+            if (dataMap.get("url").equals(failingId)) {
+                throw new IllegalStateException("Failed to store " + failingId);
+            }
+            events.add((String) dataMap.get("url"));
+        }
+
+        @Override
+        public long getDocumentSize() {
+            return events.size();
+        }
+
+        @Override
+        public long getExecuteTime() {
+            return 0;
+        }
+
+        @Override
+        public void commit() {
+            events.add("commit");
+            if (failingCommits > 0) {
+                failingCommits--;
+                throw new IllegalStateException("Failed to commit");
+            }
+        }
+    }
+}
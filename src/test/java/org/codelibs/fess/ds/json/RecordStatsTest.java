@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class RecordStatsTest extends PlainTestCase {
+
+    public void test_sample() {
+        final RecordStats none = new RecordStats(0, 60000);
+        final RecordStats all = new RecordStats(1, 60000);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(none.sample());
+            assertTrue(all.sample());
+        }
+        assertEquals(0, none.getSampledCount());
+        assertEquals(100, all.getSampledCount());
+    }
+
+    public void test_record() {
+        final RecordStats stats = new RecordStats(0, 60000, "PREPARED", "FINISHED");
+        stats.record("PREPARED", 1, 2_000_000);
+        stats.record("PREPARED", 1, 3_000_000);
+        stats.record("FINISHED", 10, 0);
+        stats.record("unknown", 1, 1);
+        stats.addBytes(100);
+
+        assertEquals(2, stats.getCount("PREPARED"));
+        assertEquals(5_000_000, stats.getNanos("PREPARED"));
+        assertEquals(10, stats.getCount("FINISHED"));
+        assertEquals(0, stats.getCount("unknown"));
+        assertEquals(2, stats.getHistogram("PREPARED").getCount());
+        assertEquals(3_000_000, stats.getHistogram("PREPARED").getMax());
+        assertNull(stats.getHistogram("unknown"));
+        assertEquals(100, stats.getBytes());
+        final String summary = stats.toString();
+        assertTrue(summary, summary.startsWith("records=0(0/s) bytes=100("));
+        assertTrue(summary, summary.endsWith(" read=0 PREPARED=2(5ms p50=2ms p99=3ms max=3ms) FINISHED=10 sampled=0"));
+    }
+
+    public void test_recordRead() throws Exception {
+        final RecordStats stats = new RecordStats(0, 60000);
+        stats.startReading();
+        Thread.sleep(10);
+        stats.recordRead(50);
+        stats.startReading();
+        stats.recordRead(30);
+        assertEquals(2, stats.getCount(RecordStats.READ));
+        assertEquals(80, stats.getBytes());
+        assertTrue(stats.getHistogram(RecordStats.READ).getMax() >= 10_000_000);
+        final String summary = stats.summarize();
+        assertTrue(summary, summary.startsWith("records=2("));
+        assertTrue(summary, summary.contains(" bytes=80("));
+    }
+
+    public void test_summarize() {
+        final RecordStats stats = new RecordStats(0, 60000, "PREPARED");
+        stats.record("PREPARED", 2, 4_000_000);
+        String summary = stats.summarize();
+        assertTrue(summary, summary.endsWith(" read=0 PREPARED=2(4ms p50=2ms p99=2ms max=2ms)"));
+
+        // actions are counted since the previous summary
+        stats.record("PREPARED", 1, 5_000);
+        summary = stats.summarize();
+        assertTrue(summary, summary.endsWith(" read=0 PREPARED=1(5us p50=5us p99=5us max=5us)"));
+        summary = stats.summarize();
+        assertTrue(summary, summary.endsWith(" read=0 PREPARED=0"));
+
+        summary = stats.toString();
+        assertTrue(summary, summary.endsWith(" PREPARED=3(4ms p50=2ms p99=2ms max=2ms) sampled=0"));
+    }
+
+    public void test_isSummaryDue() throws Exception {
+        final RecordStats stats = new RecordStats(0, 20);
+        assertFalse(stats.isSummaryDue());
+        Thread.sleep(30);
+        assertTrue(stats.isSummaryDue());
+        assertFalse(stats.isSummaryDue());
+        Thread.sleep(30);
+        stats.summarize();
+        assertFalse(stats.isSummaryDue());
+    }
+
+    public void test_formatNanos() {
+        assertEquals("999ns", RecordStats.formatNanos(999));
+        assertEquals("12us", RecordStats.formatNanos(12_345));
+        assertEquals("12ms", RecordStats.formatNanos(12_345_678));
+        assertEquals("12s", RecordStats.formatNanos(12_345_678_901L));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class RecordTrackerTest extends PlainTestCase {
+
+    public void test_finish() throws Exception {
+        final Path path = Files.createTempDirectory("tracker").resolve("urls.bin");
+        final List<String> deleted = new ArrayList<>();
+
+        RecordTracker tracker = new RecordTracker(path);
+        tracker.open();
+        tracker.stored("/a.jsonl", 1L, "u1");
+        tracker.stored("/a.jsonl", 2L, "u2");
+        tracker.stored("/a.jsonl", 3L, "u3");
+        tracker.stored("/b.jsonl", 4L, "u4");
+        tracker.stored("/c.jsonl", 5L, "u5");
+        assertEquals(0L, tracker.finish(true, deleted::addAll, 10));
+
+        // u2 is unchanged, u3 is removed, b.jsonl is not fully read, and c.jsonl is removed
+        tracker = new RecordTracker(path);
+        tracker.open();
+        tracker.stored("/a.jsonl", 1L, "u1");
+        tracker.seen(2L);
+        tracker.markIncomplete("/b.jsonl");
+        assertEquals(2L, tracker.finish(true, deleted::addAll, 1));
+        assertEquals(List.of("u3", "u5"), deleted);
+
+        // entries of unchanged and incomplete records are kept
+        deleted.clear();
+        tracker = new RecordTracker(path);
+        tracker.open();
+        assertEquals(3L, tracker.finish(true, deleted::addAll, 10));
+        assertEquals(List.of("u1", "u2", "u4"), deleted);
+    }
+
+    public void test_finish_disabled() throws Exception {
+        final Path path = Files.createTempDirectory("tracker").resolve("urls.bin");
+        RecordTracker tracker = new RecordTracker(path);
+        tracker.open();
+        tracker.stored("/a.jsonl", 1L, "u1");
+        tracker.finish(true, urls -> fail(), 10);
+
+        tracker = new RecordTracker(path);
+        tracker.open();
+        assertEquals(0L, tracker.finish(false, urls -> fail(), 10));
+
+        // a failed deletion is retried in the next crawl
+        tracker = new RecordTracker(path);
+        tracker.open();
+        assertEquals(0L, tracker.finish(true, urls -> {
+            throw new IllegalStateException("unavailable");
+        }, 10));
+
+        final List<String> deleted = new ArrayList<>();
+        tracker = new RecordTracker(path);
+        tracker.open();
+        assertEquals(1L, tracker.finish(true, deleted::addAll, 10));
+        assertEquals(List.of("u1"), deleted);
+    }
+}
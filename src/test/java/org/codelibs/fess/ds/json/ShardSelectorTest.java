@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class ShardSelectorTest extends PlainTestCase {
+
+    public void test_select() throws Exception {
+        final Path dir = Files.createTempDirectory("shard");
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            files.add(Files.writeString(dir.resolve("f" + i + ".jsonl"), "{}\n").toFile());
+        }
+        final ShardSelector[] selectors = { new ShardSelector(3, 0, 0), new ShardSelector(3, 1, 0), new ShardSelector(3, 2, 0) };
+        for (final File file : files) {
+            int count = 0;
+            for (final ShardSelector selector : selectors) {
+                if (selector.select(Paths.get("sub", file.getName()), file)) {
+                    count++;
+                    assertFalse(selector.isSplit(file));
+                    assertTrue(selector.isAssigned(file, 0));
+                }
+            }
+            assertEquals(1, count);
+        }
+        for (final ShardSelector selector : selectors) {
+            assertTrue(selector.getSkippedFiles().size() < files.size());
+        }
+        assertEquals(files.size() * 2, selectors[0].getSkippedFiles().size() + selectors[1].getSkippedFiles().size()
+                + selectors[2].getSkippedFiles().size());
+
+        // the key does not depend on where the directory is mounted
+        final ShardSelector other = new ShardSelector(3, 0, 0);
+        for (final File file : files) {
+            assertEquals(selectors[0].select("sub/" + file.getName(), file), other.select(Paths.get("sub", file.getName()), file));
+        }
+    }
+
+    public void test_select_split() throws Exception {
+        final File file = Files.writeString(Files.createTempDirectory("shard").resolve("a.jsonl"), "{}\n".repeat(100)).toFile();
+        final ShardSelector[] selectors = { new ShardSelector(2, 0, 100), new ShardSelector(2, 1, 100) };
+        for (final ShardSelector selector : selectors) {
+            assertTrue(selector.select("a.jsonl", file));
+            assertTrue(selector.isSplit(file));
+            assertTrue(selector.getSkippedFiles().isEmpty());
+        }
+        for (int range = 0; range < 4; range++) {
+            assertTrue(selectors[0].isAssigned(file, range) != selectors[1].isAssigned(file, range));
+            assertEquals(selectors[0].isAssigned(file, range), selectors[0].isAssigned(file, range + 2));
+        }
+    }
+
+    public void test_select_growing() throws Exception {
+        final Path path = Files.createTempDirectory("shard").resolve("a.jsonl");
+        final File file = Files.writeString(path, "{}\n".repeat(10)).toFile();
+        final ShardSelector[] selectors = { new ShardSelector(2, 0, 100), new ShardSelector(2, 1, 100) };
+        // a small file is read as range 0 by one crawler
+        final int owner = selectors[0].select("a.jsonl", file) ? 0 : 1;
+        assertEquals(owner == 1, selectors[1].select("a.jsonl", file));
+        assertTrue(selectors[owner].isSplit(file));
+        assertFalse(selectors[1 - owner].isSplit(file));
+        assertTrue(selectors[1 - owner].getSkippedFiles().contains(file.getAbsolutePath()));
+
+        // the file is listed again after it has grown, and its ranges keep their crawlers
+        Files.writeString(path, "{}\n".repeat(90), StandardOpenOption.APPEND);
+        assertTrue(selectors[1 - owner].select("a.jsonl", file));
+        assertTrue(selectors[1 - owner].isSplit(file));
+        assertTrue(selectors[1 - owner].getSkippedFiles().isEmpty());
+        assertTrue(selectors[owner].isAssigned(file, 0));
+        assertFalse(selectors[owner].isAssigned(file, 1));
+        assertFalse(selectors[1 - owner].isAssigned(file, 0));
+        assertTrue(selectors[1 - owner].isAssigned(file, 1));
+    }
+
+    public void test_new() {
+        try {
+            new ShardSelector(2, 2, 0);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
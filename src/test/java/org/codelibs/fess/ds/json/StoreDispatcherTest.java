@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012-2024 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.json;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dbflute.utflute.core.PlainTestCase;
+
+public class StoreDispatcherTest extends PlainTestCase {
+
+    public void test_dispatch() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger resources = new AtomicInteger();
+        final Set<Integer> used = ConcurrentHashMap.newKeySet();
+        try (StoreDispatcher<Integer> dispatcher = new StoreDispatcher<>(4, resources::incrementAndGet)) {
+            for (int i = 0; i < 100; i++) {
+                dispatcher.dispatch(resource -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    used.add(resource);
+                    try {
+                        Thread.sleep(1L);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    count.incrementAndGet();
+                });
+            }
+        }
+        assertEquals(100, count.get());
+        assertTrue(maxRunning.get() <= 4);
+        assertTrue(resources.get() <= 4);
+        assertEquals(resources.get(), used.size());
+    }
+
+    public void test_newExecutorService() {
+        try (StoreDispatcher<Integer> dispatcher = new StoreDispatcher<>(1, () -> 0)) {
+            final ExecutorService executorService = dispatcher.newExecutorService(3);
+            try {
+                if (!StoreDispatcher.isVirtualThreadAvailable()) {
+                    // platform threads are bounded by the limit
+                    assertTrue(executorService instanceof ThreadPoolExecutor);
+                    assertEquals(3, ((ThreadPoolExecutor) executorService).getMaximumPoolSize());
+                }
+            } finally {
+                executorService.shutdown();
+            }
+        }
+    }
+
+    public void test_getDefaultConcurrency() {
+        if (StoreDispatcher.isVirtualThreadAvailable()) {
+            assertEquals(256, StoreDispatcher.getDefaultConcurrency());
+        } else {
+            assertEquals(Runtime.getRuntime().availableProcessors(), StoreDispatcher.getDefaultConcurrency());
+        }
+    }
+}